@@ -0,0 +1,181 @@
+package benchmarks;
+
+import db.DBConnection;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Rebuilds the schema from the project's SQL scripts and fills it with generated data.
+ *
+ * <p>The public schema is dropped first, so the database configured by JDBC_URL must be a
+ * throwaway one: its name has to end with {@code _bench}, unless {@code -Dbench.allowReset=true}.
+ */
+final class BenchmarkDatabase {
+
+    // Même ordre que l'historique du projet (db.sql crée la base, il est lancé à la main)
+    private static final String[] SCRIPTS = {
+        "schema.sql",
+        "data.sql",
+        "update_dish_in_price_column.sql",
+        "new_schema.sql",
+        "order_and_orderDish_schemas.sql",
+        "exam.sql",
+        "stock_mouvement_schema.sql",
+        "stock_snapshot_schema.sql",
+        "order_booking_constraint.sql",
+        "search_indexes.sql",
+        "order_stock_movement.sql",
+        "stock_ledger_schema.sql",
+    };
+
+    /** Every order is booked in its own 3 hour slot from this date, 2 hours long. */
+    static final String FIRST_SLOT = "2024-01-01 10:00";
+
+    private BenchmarkDatabase() {}
+
+    static void seed(DBConnection dbConnection, DataSize size) {
+        Connection conn = dbConnection.getDBConnection();
+        try {
+            checkResetAllowed(conn);
+            try (Statement st = conn.createStatement()) {
+                st.execute("DROP SCHEMA public CASCADE; CREATE SCHEMA public;");
+                for (String script : SCRIPTS) {
+                    st.execute(readScript(script));
+                }
+                // schema.sql nomme le type "category" alors que DataRetriever caste en ingredient_category
+                st.execute("ALTER TYPE category RENAME TO ingredient_category");
+            }
+            insertGeneratedRows(conn, size);
+            try (Statement st = conn.createStatement()) {
+                st.execute("ANALYZE");
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to seed benchmark database", e);
+        } finally {
+            dbConnection.close(conn);
+        }
+    }
+
+    private static void checkResetAllowed(Connection conn) throws SQLException {
+        if (Boolean.getBoolean("bench.allowReset")) {
+            return;
+        }
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT current_database()")) {
+            rs.next();
+            String database = rs.getString(1);
+            if (!database.endsWith("_bench")) {
+                throw new IllegalStateException(
+                        "Refusing to reset database " + database
+                                + " (use a *_bench database or -Dbench.allowReset=true)");
+            }
+        }
+    }
+
+    private static void insertGeneratedRows(Connection conn, DataSize size) throws SQLException {
+        // Les scripts insèrent des ids explicites sans toujours recaler les séquences
+        syncSequence(conn, "dish_ingredient");
+        syncSequence(conn, "stock_movement");
+
+        execute(conn, """
+            INSERT INTO ingredient (name, price, category)
+            SELECT 'Ingredient ' || g,
+                   100 + g % 5000,
+                   (enum_range(NULL::ingredient_category))[1 + g % 5]
+            FROM generate_series(1, ?) g
+            """, size.ingredients());
+
+        execute(conn, """
+            INSERT INTO dish (name, dish_type, price)
+            SELECT 'Dish ' || g,
+                   (enum_range(NULL::dish_type))[1 + g % 3],
+                   CASE WHEN g % 10 = 0 THEN NULL ELSE 1000 + g % 20000 END
+            FROM generate_series(1, ?) g
+            """, size.dishes());
+
+        // 3 à 6 ingrédients par plat
+        execute(conn, """
+            INSERT INTO dish_ingredient (id_dish, id_ingredient, quantity_required, unit)
+            SELECT d.id,
+                   1 + (d.id * 7 + k * 13) % (SELECT MAX(id) FROM ingredient),
+                   0.05 + (k % 4) * 0.05,
+                   'KG'
+            FROM dish d
+            CROSS JOIN generate_series(1, 6) k
+            WHERE k <= 3 + d.id % 4
+            """);
+
+        execute(conn, """
+            INSERT INTO restaurant_table (number)
+            SELECT (SELECT MAX(number) FROM restaurant_table) + g
+            FROM generate_series(1, GREATEST(? - (SELECT COUNT(*) FROM restaurant_table), 0)) g
+            """, size.tables());
+
+        execute(conn, """
+            INSERT INTO stock_movement (id_ingredient, quantity, type, unit, creation_datetime)
+            SELECT i.id,
+                   CASE WHEN g = 1 THEN 1000000 ELSE 0.5 END,
+                   CASE WHEN g = 1 OR g % 4 = 0 THEN 'IN'::movement_type ELSE 'OUT'::movement_type END,
+                   'KG',
+                   TIMESTAMP '2023-01-01' + g * INTERVAL '1 hour'
+            FROM ingredient i
+            CROSS JOIN generate_series(1, ?) g
+            """, size.movementsPerIngredient());
+
+        execute(conn, """
+            WITH tables AS (
+                SELECT id, row_number() OVER (ORDER BY id) - 1 AS position, COUNT(*) OVER () AS total
+                FROM restaurant_table
+            ),
+            slots AS (
+                SELECT g, ?::timestamp + (g / t.total) * INTERVAL '3 hours' AS slot, t.id AS id_table
+                FROM generate_series(0, ? - 1) g
+                JOIN tables t ON t.position = g % t.total
+            )
+            INSERT INTO "order" (reference, creation_datetime, id_table, arrival_datetime, departure_datetime)
+            SELECT 'BENCH' || lpad(g::text, 8, '0'), slot - INTERVAL '1 day', id_table, slot, slot + INTERVAL '2 hours'
+            FROM slots
+            """, FIRST_SLOT, size.orders());
+
+        execute(conn, """
+            INSERT INTO dish_order (id_order, id_dish, quantity)
+            SELECT o.id, 1 + (o.id * 3 + k) % (SELECT MAX(id) FROM dish), 1 + k
+            FROM "order" o
+            CROSS JOIN generate_series(0, 1) k
+            """);
+    }
+
+    private static void syncSequence(Connection conn, String table) throws SQLException {
+        execute(conn, "SELECT setval(pg_get_serial_sequence(?, 'id'), (SELECT COALESCE(MAX(id), 0) + 1 FROM "
+                + table + "), false)", table);
+    }
+
+    private static void execute(Connection conn, String sql, Object... params) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                ps.setObject(i + 1, params[i]);
+            }
+            ps.execute();
+        }
+    }
+
+    private static String readScript(String name) {
+        try (InputStream in = BenchmarkDatabase.class.getResourceAsStream("/sql/" + name)) {
+            if (in == null) {
+                throw new IllegalStateException("SQL script not found on classpath: " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    record DataSize(
+            int ingredients, int dishes, int tables, int orders, int movementsPerIngredient) {}
+}
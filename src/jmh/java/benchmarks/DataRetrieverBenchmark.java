@@ -0,0 +1,145 @@
+package benchmarks;
+
+import benchmarks.BenchmarkDatabase.DataSize;
+import db.DBConnection;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import models.CategoryEnum;
+import models.Dish;
+import models.DishOrder;
+import models.Ingredient;
+import models.Order;
+import models.StockValue;
+import models.Table;
+import models.TableOrder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import services.DataRetriever;
+
+/**
+ * DataRetriever hot paths against a local PostgreSQL seeded by {@link BenchmarkDatabase}.
+ *
+ * <p>Data sizes are JMH parameters, e.g. {@code -p orders=100000 -p movementsPerIngredient=1000}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DataRetrieverBenchmark {
+
+    private static final Duration SLOT = Duration.ofHours(3);
+    private static final Duration STAY = Duration.ofHours(2);
+
+    @Param({"1000"})
+    public int ingredients;
+
+    @Param({"200"})
+    public int dishes;
+
+    @Param({"20"})
+    public int tables;
+
+    @Param({"10000"})
+    public int orders;
+
+    @Param({"100"})
+    public int movementsPerIngredient;
+
+    private DBConnection dbConnection;
+    private DataRetriever dataRetriever;
+    private List<Table> allTables;
+    private Instant firstSlot;
+    private Ingredient ingredientWithHistory;
+    private Instant historyEnd;
+
+    // Créneaux libres après les commandes générées, un par appel à saveOrder
+    private final AtomicLong nextFreeSlot = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void seed() {
+        dbConnection = new DBConnection();
+        BenchmarkDatabase.seed(
+                dbConnection, new DataSize(ingredients, dishes, tables, orders, movementsPerIngredient));
+
+        dataRetriever = new DataRetriever(dbConnection);
+        dataRetriever.rebuildStockSnapshots();
+
+        firstSlot = toInstant(BenchmarkDatabase.FIRST_SLOT);
+        // Aucune réservation en 1970 : renvoie toutes les tables
+        allTables = dataRetriever.findAvailableTables(Instant.EPOCH, Instant.EPOCH.plusSeconds(1));
+        nextFreeSlot.set(orders / allTables.size() + 1);
+
+        ingredientWithHistory = dataRetriever.findIngredientById(1);
+        ingredientWithHistory.getStockMovementList();
+        historyEnd = toInstant("2023-01-01 00:00").plus(Duration.ofHours(movementsPerIngredient));
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        dbConnection.shutdown();
+    }
+
+    @Benchmark
+    public Order saveOrder() {
+        Table table = allTables.get(ThreadLocalRandom.current().nextInt(allTables.size()));
+        Instant arrival = firstSlot.plus(SLOT.multipliedBy(nextFreeSlot.getAndIncrement()));
+        int dishId = 1 + ThreadLocalRandom.current().nextInt(dishes);
+
+        Dish dish = new Dish(dishId, null, null);
+        Order order =
+                new Order(
+                        0,
+                        null,
+                        Instant.now(),
+                        List.of(new DishOrder(0, dish, 2)),
+                        new TableOrder(table, arrival, arrival.plus(STAY)));
+        return dataRetriever.saveOrder(order);
+    }
+
+    @Benchmark
+    public Order findOrderByReference() {
+        int g = ThreadLocalRandom.current().nextInt(orders);
+        return dataRetriever.findOrderByReference(String.format("BENCH%08d", g));
+    }
+
+    @Benchmark
+    public boolean isTableAvailable() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Table table = allTables.get(random.nextInt(allTables.size()));
+        long bookedMinutes = (long) orders / allTables.size() * SLOT.toMinutes();
+        Instant arrival = firstSlot.plus(Duration.ofMinutes(random.nextLong(bookedMinutes + 1)));
+        return dataRetriever.isTableAvailable(table.getId(), arrival, arrival.plus(STAY));
+    }
+
+    @Benchmark
+    public List<Ingredient> findIngredientsByCriteria() {
+        CategoryEnum category = CategoryEnum.values()[ThreadLocalRandom.current().nextInt(5)];
+        return dataRetriever.findIngredientsByCriteria("Ingredient 1", category, "Dish", 1, 20);
+    }
+
+    @Benchmark
+    public StockValue ingredientStockValueAt() {
+        long hours = ThreadLocalRandom.current().nextLong(movementsPerIngredient + 1L);
+        return ingredientWithHistory.getStockValueAt(historyEnd.minus(Duration.ofHours(hours)));
+    }
+
+    // Les colonnes TIMESTAMP sont lues dans le fuseau de la JVM
+    private static Instant toInstant(String localDateTime) {
+        return LocalDateTime.parse(localDateTime.replace(' ', 'T'))
+                .atZone(ZoneId.systemDefault())
+                .toInstant();
+    }
+}
@@ -0,0 +1,159 @@
+package cache;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Size-bounded, access-ordered cache with a time-to-live per entry.
+ *
+ * <p>Loaders run outside the cache lock. Threads missing on a key being loaded wait for that load
+ * instead of starting another one. A load overtaken by an invalidation of its key still returns
+ * its value to the callers already waiting, but is not stored and is not shared with later ones.
+ */
+public class LruCache<K, V> {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private final Map<K, Load<V>> loading = new HashMap<>();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public LruCache(int maxSize, Duration ttl) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        if (ttl == null || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.entries =
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                        if (size() > LruCache.this.maxSize) {
+                            evictions++;
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+    }
+
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        Load<V> load;
+        boolean owner = false;
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (System.nanoTime() - entry.loadedAt() < ttlNanos) {
+                    hits++;
+                    return entry.value();
+                }
+                entries.remove(key);
+                evictions++;
+            }
+            misses++;
+
+            load = loading.get(key);
+            // Un chargement invalidé en cours de route ne doit plus servir à personne
+            if (load == null || load.invalidated) {
+                load = new Load<>();
+                loading.put(key, load);
+                owner = true;
+            }
+        }
+
+        if (!owner) {
+            return load.await();
+        }
+
+        V value;
+        try {
+            value = loader.apply(key);
+        } catch (RuntimeException | Error e) {
+            finish(key, load);
+            load.result.completeExceptionally(e);
+            throw e;
+        }
+
+        synchronized (this) {
+            if (value != null && !load.invalidated) {
+                entries.put(key, new Entry<>(value, System.nanoTime()));
+            }
+        }
+        finish(key, load);
+        load.result.complete(value);
+        return value;
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+        Load<V> load = loading.get(key);
+        if (load != null) {
+            load.invalidated = true;
+        }
+    }
+
+    /** Also discards every load in progress: their values are not known yet. */
+    public synchronized void invalidateIf(Predicate<? super V> predicate) {
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (predicate.test(iterator.next().value())) {
+                iterator.remove();
+            }
+        }
+        invalidateLoading();
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        invalidateLoading();
+    }
+
+    private void invalidateLoading() {
+        for (Load<V> load : loading.values()) {
+            load.invalidated = true;
+        }
+    }
+
+    private synchronized void finish(K key, Load<V> load) {
+        loading.remove(key, load);
+    }
+
+    public synchronized CacheStats getStats() {
+        return new CacheStats(hits, misses, evictions, entries.size());
+    }
+
+    private record Entry<V>(V value, long loadedAt) {}
+
+    private static final class Load<V> {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        // Lu et écrit sous le verrou du cache
+        private boolean invalidated;
+
+        V await() {
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                if (e.getCause() instanceof Error cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of physical PostgreSQL connections.
+ *
+ * <p>Borrowed connections are proxies: calling {@code close()} on them hands the physical
+ * connection back to the pool instead of closing the socket.
+ */
+public class ConnectionPool {
+
+    static final long[] WAIT_BUCKET_BOUNDS_MS = {1, 5, 10, 50, 100, 500, 1000, 5000};
+
+    private final String url;
+    private final Properties properties;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<IdleConnection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder borrowTimeouts = new LongAdder();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+    private final LongAdder statementCacheEvictions = new LongAdder();
+    private final AtomicLongArray waitHistogram = new AtomicLongArray(WAIT_BUCKET_BOUNDS_MS.length + 1);
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean shutdown;
+
+    public ConnectionPool(
+            String url,
+            Properties properties,
+            int minSize,
+            int maxSize,
+            long idleTimeoutMillis,
+            long borrowTimeoutMillis,
+            int validationTimeoutSeconds,
+            int statementCacheSize) {
+        if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+            throw new IllegalArgumentException(
+                    "Invalid pool size (min=" + minSize + ", max=" + maxSize + ")");
+        }
+        this.url = url;
+        this.properties = properties;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper =
+                Executors.newSingleThreadScheduledExecutor(
+                        runnable -> {
+                            Thread thread = new Thread(runnable, "db-pool-housekeeper");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection borrow() throws SQLException {
+        if (shutdown) {
+            throw new SQLException("Connection pool is shut down");
+        }
+
+        long start = System.nanoTime();
+        waiters.incrementAndGet();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        } finally {
+            waiters.decrementAndGet();
+        }
+        recordWait(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        if (!acquired) {
+            borrowTimeouts.increment();
+            throw new SQLException(
+                    "Timed out after " + borrowTimeoutMillis + " ms waiting for a connection");
+        }
+
+        try {
+            PhysicalConnection physical = takeValidIdle();
+            if (physical == null) {
+                physical = open();
+            }
+            active.incrementAndGet();
+            return wrap(physical);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public PoolMetrics getMetrics() {
+        long[] histogram = new long[waitHistogram.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = waitHistogram.get(i);
+        }
+        return new PoolMetrics(
+                active.get(),
+                idle.size(),
+                waiters.get(),
+                maxSize,
+                created.sum(),
+                destroyed.sum(),
+                borrowTimeouts.sum(),
+                statementCacheHits.sum(),
+                statementCacheMisses.sum(),
+                statementCacheEvictions.sum(),
+                WAIT_BUCKET_BOUNDS_MS.clone(),
+                histogram);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        housekeeper.shutdownNow();
+        IdleConnection entry;
+        while ((entry = idle.pollFirst()) != null) {
+            destroy(entry.connection());
+        }
+    }
+
+    private PhysicalConnection takeValidIdle() {
+        IdleConnection entry;
+        while ((entry = idle.pollFirst()) != null) {
+            PhysicalConnection physical = entry.connection();
+            try {
+                if (physical.connection().isValid(validationTimeoutSeconds)) {
+                    return physical;
+                }
+            } catch (SQLException ignored) {
+            }
+            destroy(physical);
+        }
+        return null;
+    }
+
+    private PhysicalConnection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(url, properties);
+        created.increment();
+        return new PhysicalConnection(
+                connection,
+                new StatementCache(
+                        connection,
+                        statementCacheSize,
+                        statementCacheHits,
+                        statementCacheMisses,
+                        statementCacheEvictions));
+    }
+
+    private void giveBack(PhysicalConnection physical) {
+        active.decrementAndGet();
+        try {
+            Connection connection = physical.connection();
+            if (shutdown || connection.isClosed()) {
+                destroy(physical);
+                return;
+            }
+            physical.statements().releaseAll();
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            idle.offerFirst(new IdleConnection(physical, System.currentTimeMillis()));
+        } catch (SQLException e) {
+            destroy(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void destroy(PhysicalConnection physical) {
+        destroyed.increment();
+        physical.statements().closeAll();
+        try {
+            physical.connection().close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        Iterator<IdleConnection> oldestFirst = idle.descendingIterator();
+        while (oldestFirst.hasNext()) {
+            IdleConnection entry = oldestFirst.next();
+            if (active.get() + idle.size() <= minSize) {
+                break;
+            }
+            if (now - entry.idleSince() >= idleTimeoutMillis && idle.remove(entry)) {
+                destroy(entry.connection());
+            }
+        }
+
+        while (!shutdown && active.get() + idle.size() < minSize) {
+            try {
+                idle.offerLast(new IdleConnection(open(), now));
+            } catch (SQLException e) {
+                // The database may not be reachable yet; retry on the next run.
+                break;
+            }
+        }
+    }
+
+    private void recordWait(long waitMillis) {
+        int bucket = 0;
+        while (bucket < WAIT_BUCKET_BOUNDS_MS.length && waitMillis > WAIT_BUCKET_BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        waitHistogram.incrementAndGet(bucket);
+    }
+
+    private Connection wrap(PhysicalConnection physical) {
+        return (Connection)
+                Proxy.newProxyInstance(
+                        Connection.class.getClassLoader(),
+                        new Class<?>[] {Connection.class},
+                        new PooledConnectionHandler(physical));
+    }
+
+    private record PhysicalConnection(Connection connection, StatementCache statements) {}
+
+    private record IdleConnection(PhysicalConnection connection, long idleSince) {}
+
+    private class PooledConnectionHandler implements InvocationHandler {
+        private final PhysicalConnection physical;
+        private boolean closed;
+
+        PooledConnectionHandler(PhysicalConnection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!closed) {
+                        closed = true;
+                        giveBack(physical);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return closed || physical.connection().isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "Pooled" + physical.connection();
+                }
+                case "prepareStatement" -> {
+                    if (closed) {
+                        throw new SQLException("Connection is closed");
+                    }
+                    if (args.length == 1) {
+                        return physical.statements().prepare((String) args[0]);
+                    }
+                }
+                default -> {
+                    if (closed) {
+                        throw new SQLException("Connection is closed");
+                    }
+                }
+            }
+
+            try {
+                return method.invoke(physical.connection(), args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
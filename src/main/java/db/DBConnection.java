@@ -2,20 +2,68 @@ package db;
 
 import io.github.cdimascio.dotenv.Dotenv;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
 
+/**
+ * Entry point to the database. Instances created for the same URL and credentials share one
+ * {@link ConnectionPool}, so {@code DB_POOL_MAX_SIZE} caps the connections of the whole process
+ * however many services create their own {@code DBConnection}. The pool settings are read by the
+ * first instance; the pool is shut down when the last instance sharing it is.
+ */
 public class DBConnection {
 
+    // Guarded by itself
+    private static final Map<PoolKey, SharedPool> POOLS = new HashMap<>();
+
     private final Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
 
     private final String JDBC_URL = dotenv.get("JDBC_URL");
     private final String DB_USER = dotenv.get("DB_USER");
     private final String PASSWORD = dotenv.get("PASSWORD");
 
+    private final PoolKey poolKey;
+    private final ConnectionPool pool;
+    private boolean shutdown;
+
+    public DBConnection() {
+        Properties properties = new Properties();
+        if (DB_USER != null) {
+            properties.setProperty("user", DB_USER);
+        }
+        if (PASSWORD != null) {
+            properties.setProperty("password", PASSWORD);
+        }
+        // Nombre d'exécutions d'un même statement avant qu'il soit préparé côté serveur
+        properties.setProperty("prepareThreshold", String.valueOf(getInt("DB_PREPARE_THRESHOLD", 5)));
+
+        this.poolKey = new PoolKey(JDBC_URL, DB_USER, PASSWORD);
+        synchronized (POOLS) {
+            SharedPool shared = POOLS.get(poolKey);
+            if (shared == null) {
+                shared =
+                        new SharedPool(
+                                new ConnectionPool(
+                                        JDBC_URL,
+                                        properties,
+                                        getInt("DB_POOL_MIN_SIZE", 2),
+                                        getInt("DB_POOL_MAX_SIZE", 10),
+                                        getLong("DB_POOL_IDLE_TIMEOUT_MS", 300_000),
+                                        getLong("DB_POOL_BORROW_TIMEOUT_MS", 5_000),
+                                        getInt("DB_POOL_VALIDATION_TIMEOUT_S", 2),
+                                        getInt("DB_STATEMENT_CACHE_SIZE", 64)));
+                POOLS.put(poolKey, shared);
+            }
+            shared.users++;
+            this.pool = shared.pool;
+        }
+    }
+
     public Connection getDBConnection() {
         try {
-            return DriverManager.getConnection(JDBC_URL, DB_USER, PASSWORD);
+            return pool.borrow();
         } catch (SQLException e) {
             throw new RuntimeException("Unable to connect to database", e);
         }
@@ -30,4 +78,48 @@ public class DBConnection {
             }
         }
     }
-}
\ No newline at end of file
+
+    public PoolMetrics getPoolMetrics() {
+        return pool.getMetrics();
+    }
+
+    public int getMaxPoolSize() {
+        return pool.getMaxSize();
+    }
+
+    /** Releases this instance's share of the pool; the last instance to do so shuts it down. */
+    public void shutdown() {
+        synchronized (POOLS) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            SharedPool shared = POOLS.get(poolKey);
+            if (shared != null && shared.pool == pool && --shared.users == 0) {
+                POOLS.remove(poolKey);
+                pool.shutdown();
+            }
+        }
+    }
+
+    private int getInt(String key, int defaultValue) {
+        String value = dotenv.get(key);
+        return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private long getLong(String key, long defaultValue) {
+        String value = dotenv.get(key);
+        return value == null || value.isBlank() ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    private record PoolKey(String url, String user, String password) {}
+
+    private static final class SharedPool {
+        private final ConnectionPool pool;
+        private int users;
+
+        private SharedPool(ConnectionPool pool) {
+            this.pool = pool;
+        }
+    }
+}
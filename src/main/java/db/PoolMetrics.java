@@ -0,0 +1,125 @@
+package db;
+
+import java.util.Arrays;
+
+public class PoolMetrics {
+    private final int active;
+    private final int idle;
+    private final int waiters;
+    private final int maxSize;
+    private final long created;
+    private final long destroyed;
+    private final long borrowTimeouts;
+    private final long statementCacheHits;
+    private final long statementCacheMisses;
+    private final long statementCacheEvictions;
+    private final long[] waitBucketBoundsMillis;
+    private final long[] waitHistogram;
+
+    public PoolMetrics(
+            int active,
+            int idle,
+            int waiters,
+            int maxSize,
+            long created,
+            long destroyed,
+            long borrowTimeouts,
+            long statementCacheHits,
+            long statementCacheMisses,
+            long statementCacheEvictions,
+            long[] waitBucketBoundsMillis,
+            long[] waitHistogram) {
+        this.active = active;
+        this.idle = idle;
+        this.waiters = waiters;
+        this.maxSize = maxSize;
+        this.created = created;
+        this.destroyed = destroyed;
+        this.borrowTimeouts = borrowTimeouts;
+        this.statementCacheHits = statementCacheHits;
+        this.statementCacheMisses = statementCacheMisses;
+        this.statementCacheEvictions = statementCacheEvictions;
+        this.waitBucketBoundsMillis = waitBucketBoundsMillis;
+        this.waitHistogram = waitHistogram;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    public int getWaiters() {
+        return waiters;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getDestroyed() {
+        return destroyed;
+    }
+
+    public long getBorrowTimeouts() {
+        return borrowTimeouts;
+    }
+
+    /** Each hit is a statement reused instead of being parsed (and planned) again. */
+    public long getStatementCacheHits() {
+        return statementCacheHits;
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCacheMisses;
+    }
+
+    public long getStatementCacheEvictions() {
+        return statementCacheEvictions;
+    }
+
+    /** Upper bounds (inclusive, in ms) of the wait histogram buckets; the last bucket is open. */
+    public long[] getWaitBucketBoundsMillis() {
+        return waitBucketBoundsMillis.clone();
+    }
+
+    public long[] getWaitHistogram() {
+        return waitHistogram.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "PoolMetrics{"
+                + "active="
+                + active
+                + ", idle="
+                + idle
+                + ", waiters="
+                + waiters
+                + ", maxSize="
+                + maxSize
+                + ", created="
+                + created
+                + ", destroyed="
+                + destroyed
+                + ", borrowTimeouts="
+                + borrowTimeouts
+                + ", statementCacheHits="
+                + statementCacheHits
+                + ", statementCacheMisses="
+                + statementCacheMisses
+                + ", statementCacheEvictions="
+                + statementCacheEvictions
+                + ", waitBucketBoundsMillis="
+                + Arrays.toString(waitBucketBoundsMillis)
+                + ", waitHistogram="
+                + Arrays.toString(waitHistogram)
+                + '}';
+    }
+}
@@ -0,0 +1,225 @@
+package db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-connection cache of prepared statements keyed by SQL text. A physical connection is only
+ * used by one borrower at a time, so the cache itself is not thread-safe.
+ *
+ * <p>Statements handed out are proxies: {@code close()} returns the statement to the cache. A
+ * statement still in use when the same SQL is prepared again is not shared; the second caller
+ * gets a plain, uncached statement. On release the open ResultSet is closed and fetch size, max
+ * rows, fetch direction and query timeout go back to their defaults; a statement given settings
+ * that cannot be restored (cursor name, escape processing, poolable) is closed instead.
+ */
+class StatementCache {
+
+    private final Connection physical;
+    private final int maxSize;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final LinkedHashMap<String, CachedStatement> statements =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    StatementCache(
+            Connection physical, int maxSize, LongAdder hits, LongAdder misses, LongAdder evictions) {
+        this.physical = physical;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    PreparedStatement prepare(String sql) throws SQLException {
+        if (maxSize <= 0) {
+            return physical.prepareStatement(sql);
+        }
+
+        CachedStatement cached = statements.get(sql);
+        if (cached != null && cached.discarded) {
+            statements.remove(sql);
+            cached = null;
+        }
+        if (cached != null) {
+            if (cached.inUse) {
+                misses.increment();
+                return physical.prepareStatement(sql);
+            }
+            hits.increment();
+            return cached.checkOut();
+        }
+
+        misses.increment();
+        cached = new CachedStatement(physical.prepareStatement(sql));
+        statements.put(sql, cached);
+        evictOverflow();
+        return cached.checkOut();
+    }
+
+    /** Called when the connection goes back to the pool: callers may have forgotten to close. */
+    void releaseAll() {
+        for (CachedStatement cached : statements.values()) {
+            cached.release();
+        }
+    }
+
+    void closeAll() {
+        for (CachedStatement cached : statements.values()) {
+            cached.closeQuietly();
+        }
+        statements.clear();
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, CachedStatement>> eldestFirst = statements.entrySet().iterator();
+        while (statements.size() > maxSize && eldestFirst.hasNext()) {
+            CachedStatement eldest = eldestFirst.next().getValue();
+            if (eldest.inUse) {
+                continue;
+            }
+            eldestFirst.remove();
+            eldest.closeQuietly();
+            evictions.increment();
+        }
+    }
+
+    private static class CachedStatement {
+        private final PreparedStatement statement;
+        private final int defaultFetchSize;
+        private final int defaultFetchDirection;
+        private final int defaultMaxRows;
+        private final int defaultMaxFieldSize;
+        private final int defaultQueryTimeout;
+        private boolean inUse;
+        private boolean settingsChanged;
+        private boolean discarded;
+        private Handle handle;
+
+        CachedStatement(PreparedStatement statement) throws SQLException {
+            this.statement = statement;
+            this.defaultFetchSize = statement.getFetchSize();
+            this.defaultFetchDirection = statement.getFetchDirection();
+            this.defaultMaxRows = statement.getMaxRows();
+            this.defaultMaxFieldSize = statement.getMaxFieldSize();
+            this.defaultQueryTimeout = statement.getQueryTimeout();
+        }
+
+        PreparedStatement checkOut() {
+            inUse = true;
+            handle = new Handle(this);
+            return (PreparedStatement)
+                    Proxy.newProxyInstance(
+                            PreparedStatement.class.getClassLoader(),
+                            new Class<?>[] {PreparedStatement.class},
+                            handle);
+        }
+
+        /** Statement-level setter called by the borrower, see {@link Handle#invoke}. */
+        void settingChanged(String setter) {
+            switch (setter) {
+                case "setFetchSize", "setFetchDirection", "setMaxRows", "setLargeMaxRows",
+                        "setMaxFieldSize", "setQueryTimeout" -> settingsChanged = true;
+                // Réglages sans accesseur pour les restaurer : l'instruction ne sera pas réutilisée
+                default -> discarded = true;
+            }
+        }
+
+        void release() {
+            if (!inUse) {
+                return;
+            }
+            inUse = false;
+            handle.closed = true;
+            handle = null;
+            try {
+                // Le prochain emprunteur ne doit hériter ni d'un ResultSet ouvert ni des réglages
+                ResultSet current = statement.getResultSet();
+                if (current != null) {
+                    current.close();
+                }
+                statement.clearParameters();
+                statement.clearBatch();
+                if (settingsChanged) {
+                    statement.setFetchSize(defaultFetchSize);
+                    statement.setFetchDirection(defaultFetchDirection);
+                    statement.setMaxRows(defaultMaxRows);
+                    statement.setMaxFieldSize(defaultMaxFieldSize);
+                    statement.setQueryTimeout(defaultQueryTimeout);
+                    settingsChanged = false;
+                }
+            } catch (SQLException e) {
+                discarded = true;
+            }
+            if (discarded) {
+                closeQuietly();
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    private static class Handle implements InvocationHandler {
+        private final CachedStatement owner;
+        private boolean closed;
+
+        Handle(CachedStatement owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!closed) {
+                        owner.release();
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return closed || owner.statement.isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "Cached" + owner.statement;
+                }
+                default -> {
+                    if (closed) {
+                        throw new SQLException("Statement is closed");
+                    }
+                    if (method.getDeclaringClass() == Statement.class && method.getName().startsWith("set")) {
+                        owner.settingChanged(method.getName());
+                    }
+                }
+            }
+
+            try {
+                return method.invoke(owner.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
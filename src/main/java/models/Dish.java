@@ -3,6 +3,8 @@ package models;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 public class Dish {
     private final int id;  // td1
@@ -10,6 +12,9 @@ public class Dish {
     private final DishTypeEnum dishType; // td1
     private Double price;
     private final List<DishIngredient> dishIngredients;
+    private Supplier<List<DishIngredient>> dishIngredientsLoader;
+    // Pas de synchronized : le chargement fait du JDBC et épinglerait un thread virtuel
+    private final ReentrantLock lock = new ReentrantLock();
 
     public Dish(int id, String name, DishTypeEnum dishType, Double price) {
         this.id = id;
@@ -43,7 +48,41 @@ public class Dish {
         this.price = price;
     }
 
+    /** Defers loading of the recipe until it is first accessed. */
+    public void setDishIngredientsLoader(Supplier<List<DishIngredient>> loader) {
+        lock.lock();
+        try {
+            this.dishIngredientsLoader = loader;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isDishIngredientsLoaded() {
+        lock.lock();
+        try {
+            return dishIngredientsLoader == null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ensureDishIngredientsLoaded() {
+        lock.lock();
+        try {
+            if (dishIngredientsLoader == null) {
+                return;
+            }
+            List<DishIngredient> loaded = dishIngredientsLoader.get();
+            dishIngredientsLoader = null;
+            replaceDishIngredients(loaded);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public List<Ingredient> getIngredients() {
+        ensureDishIngredientsLoaded();
         List<Ingredient> result = new ArrayList<>();
         for (DishIngredient di : dishIngredients) {
             Ingredient ingredient = di.getIngredient();
@@ -54,24 +93,41 @@ public class Dish {
     }
 
     public void setIngredients(List<Ingredient> ingredients) {
-        this.dishIngredients.clear();
-        if (ingredients == null) {
-            return;
-        }
-        for (Ingredient ingredient : ingredients) {
-            if (ingredient == null) {
-                continue;
+        lock.lock();
+        try {
+            this.dishIngredientsLoader = null;
+            this.dishIngredients.clear();
+            if (ingredients == null) {
+                return;
             }
-            double quantity = ingredient.getQuantity() == null ? 1.0 : ingredient.getQuantity();
-            this.dishIngredients.add(new DishIngredient(this, ingredient, quantity, Unit.KG));
+            for (Ingredient ingredient : ingredients) {
+                if (ingredient == null) {
+                    continue;
+                }
+                double quantity = ingredient.getQuantity() == null ? 1.0 : ingredient.getQuantity();
+                this.dishIngredients.add(new DishIngredient(this, ingredient, quantity, Unit.KG));
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     public List<DishIngredient> getDishIngredients() {
+        ensureDishIngredientsLoaded();
         return dishIngredients;
     }
 
     public void setDishIngredients(List<DishIngredient> dishIngredients) {
+        lock.lock();
+        try {
+            this.dishIngredientsLoader = null;
+            replaceDishIngredients(dishIngredients);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void replaceDishIngredients(List<DishIngredient> dishIngredients) {
         this.dishIngredients.clear();
         if (dishIngredients == null) {
             return;
@@ -86,6 +142,7 @@ public class Dish {
     }
 
     public void addIngredient(Ingredient ingredient) {
+        ensureDishIngredientsLoaded();
         if (ingredient != null) {
             double quantity = ingredient.getQuantity() == null ? 1.0 : ingredient.getQuantity();
             this.dishIngredients.add(new DishIngredient(this, ingredient, quantity, Unit.KG));
@@ -94,7 +151,7 @@ public class Dish {
 
     public Double getDishCost() {
         double totalPrice = 0;
-        for (DishIngredient di : dishIngredients) {
+        for (DishIngredient di : getDishIngredients()) {
             totalPrice += di.getIngredient().getPrice() * di.getQuantity();
         }
         return totalPrice;
@@ -120,7 +177,8 @@ public class Dish {
                 + ", price="
                 + price
                 + ", dishIngredients="
-                + dishIngredients
+                // Pas de chargement depuis toString (logs, débogueur)
+                + (isDishIngredientsLoaded() ? dishIngredients : "<not loaded>")
                 + '}';
     }
 
@@ -3,6 +3,8 @@ package models;
 import java.time.Instant;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 public class Ingredient {
     private final int id;
@@ -11,6 +13,10 @@ public class Ingredient {
     private final CategoryEnum category;
     private Double quantity;
     private List<StockMouvement> stockMouvementList;
+    private Supplier<List<StockMouvement>> stockMovementLoader;
+    private boolean stockMovementListChanged;
+    // Pas de synchronized : le chargement fait du JDBC et épinglerait un thread virtuel
+    private final ReentrantLock lock = new ReentrantLock();
 
     public Ingredient(int id, String name, double price, CategoryEnum category) {
         this.id = id;
@@ -44,11 +50,59 @@ public class Ingredient {
     }
 
     public List<StockMouvement> getStockMovementList() {
-        return stockMouvementList;
+        lock.lock();
+        try {
+            if (stockMovementLoader != null) {
+                stockMouvementList = stockMovementLoader.get();
+                stockMovementLoader = null;
+            }
+            return stockMouvementList;
+        } finally {
+            lock.unlock();
+        }
     }
 
     public void setStockMovementList(List<StockMouvement> stockMouvementList) {
-        this.stockMouvementList = stockMouvementList;
+        lock.lock();
+        try {
+            this.stockMovementLoader = null;
+            this.stockMouvementList = stockMouvementList;
+            this.stockMovementListChanged = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Defers loading of the stock history until it is first accessed. */
+    public void setStockMovementLoader(Supplier<List<StockMouvement>> loader) {
+        lock.lock();
+        try {
+            this.stockMovementLoader = loader;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * True once the history has been replaced with {@link #setStockMovementList}. A history read
+     * through the loader is not changed, except for movements appended to it (id 0).
+     */
+    public boolean isStockMovementListChanged() {
+        lock.lock();
+        try {
+            return stockMovementListChanged;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isStockMovementListLoaded() {
+        lock.lock();
+        try {
+            return stockMovementLoader == null;
+        } finally {
+            lock.unlock();
+        }
     }
 
     public StockValue getStockValueAt(Instant instant) {
@@ -56,6 +110,7 @@ public class Ingredient {
             throw new IllegalArgumentException("instant must not be null");
         }
 
+        List<StockMouvement> stockMouvementList = getStockMovementList();
         if (stockMouvementList == null || stockMouvementList.isEmpty()) {
             return new StockValue(0.0, Unit.KG);
         }
@@ -0,0 +1,20 @@
+package models;
+
+public class IngredientStockMouvement {
+
+    private final int ingredientId;
+    private final StockMouvement movement;
+
+    public IngredientStockMouvement(int ingredientId, StockMouvement movement) {
+        this.ingredientId = ingredientId;
+        this.movement = movement;
+    }
+
+    public int getIngredientId() {
+        return ingredientId;
+    }
+
+    public StockMouvement getMovement() {
+        return movement;
+    }
+}
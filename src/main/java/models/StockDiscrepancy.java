@@ -0,0 +1,38 @@
+package models;
+
+public class StockDiscrepancy {
+
+    private final int ingredientId;
+    private final double expectedQuantity;
+    private final double actualQuantity;
+
+    public StockDiscrepancy(int ingredientId, double expectedQuantity, double actualQuantity) {
+        this.ingredientId = ingredientId;
+        this.expectedQuantity = expectedQuantity;
+        this.actualQuantity = actualQuantity;
+    }
+
+    public int getIngredientId() {
+        return ingredientId;
+    }
+
+    public double getExpectedQuantity() {
+        return expectedQuantity;
+    }
+
+    public double getActualQuantity() {
+        return actualQuantity;
+    }
+
+    @Override
+    public String toString() {
+        return "StockDiscrepancy{"
+                + "ingredientId="
+                + ingredientId
+                + ", expectedQuantity="
+                + expectedQuantity
+                + ", actualQuantity="
+                + actualQuantity
+                + '}';
+    }
+}
@@ -0,0 +1,148 @@
+package services;
+
+import db.DBConnection;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import models.Dish;
+import models.DishIngredient;
+import models.Ingredient;
+import models.Order;
+import models.StockValue;
+import models.Table;
+
+/**
+ * Non-blocking facade over a {@link DataRetriever}. Each call runs on its own virtual thread;
+ * at most {@code maxConcurrency} of them touch the database at once, the others park cheaply
+ * instead of piling up on the connection pool's borrow timeout.
+ *
+ * <p>Some calls borrow a second connection while holding one ({@code saveDish} reloads the dish,
+ * lazy loaders run inside a save). Built from a {@link DBConnection}, the limit leaves one
+ * connection of the pool for these nested borrows, so every call can finish; the pool needs at
+ * least two connections.
+ */
+public class AsyncDataRetriever implements AutoCloseable {
+
+    private final DataRetriever delegate;
+    private final Semaphore permits;
+    private final int maxConcurrency;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Connexions tenues en même temps par un appel : la sienne et un emprunt imbriqué
+    static final int MAX_CONNECTIONS_PER_CALL = 2;
+
+    public AsyncDataRetriever(DBConnection dbConnection) {
+        this(new DataRetriever(dbConnection), concurrencyFor(dbConnection.getMaxPoolSize()));
+    }
+
+    public AsyncDataRetriever(DataRetriever delegate, int maxConcurrency) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate must not be null");
+        }
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        }
+        this.delegate = delegate;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency, true);
+    }
+
+    /**
+     * Calls that can run at once on a pool of {@code maxPoolSize}: when every permit holds a
+     * connection, the connections left over still serve one nested borrow. A smaller pool would
+     * block the first nested borrow forever, so it is rejected.
+     */
+    static int concurrencyFor(int maxPoolSize) {
+        if (maxPoolSize < MAX_CONNECTIONS_PER_CALL) {
+            throw new IllegalArgumentException(
+                    "The pool must allow at least " + MAX_CONNECTIONS_PER_CALL
+                            + " connections (DB_POOL_MAX_SIZE), got " + maxPoolSize);
+        }
+        return maxPoolSize - (MAX_CONNECTIONS_PER_CALL - 1);
+    }
+
+    public CompletableFuture<Dish> findDishById(int id) {
+        return submit(retriever -> retriever.findDishById(id));
+    }
+
+    public CompletableFuture<List<DishIngredient>> findDishIngredientsByDishId(int dishId) {
+        return submit(retriever -> retriever.findDishIngredientsByDishId(dishId));
+    }
+
+    public CompletableFuture<Ingredient> findIngredientById(int id) {
+        return submit(retriever -> retriever.findIngredientById(id));
+    }
+
+    public CompletableFuture<Table> findTableById(int id) {
+        return submit(retriever -> retriever.findTableById(id));
+    }
+
+    public CompletableFuture<Boolean> isTableAvailable(int tableId, Instant arrival, Instant departure) {
+        return submit(retriever -> retriever.isTableAvailable(tableId, arrival, departure));
+    }
+
+    public CompletableFuture<List<Table>> findAvailableTables(Instant arrival, Instant departure) {
+        return submit(retriever -> retriever.findAvailableTables(arrival, departure));
+    }
+
+    public CompletableFuture<StockValue> getStockValueAt(int ingredientId, Instant instant) {
+        return submit(retriever -> retriever.getStockValueAt(ingredientId, instant));
+    }
+
+    public CompletableFuture<Map<Integer, StockValue>> getStockValuesAt(
+            Collection<Integer> ingredientIds, Instant instant) {
+        return submit(retriever -> retriever.getStockValuesAt(ingredientIds, instant));
+    }
+
+    public CompletableFuture<Order> findOrderByReference(String reference) {
+        return submit(retriever -> retriever.findOrderByReference(reference));
+    }
+
+    public CompletableFuture<List<Order>> findOrdersByReferences(Collection<String> references) {
+        return submit(retriever -> retriever.findOrdersByReferences(references));
+    }
+
+    public CompletableFuture<Order> saveOrder(Order orderToSave) {
+        return submit(retriever -> retriever.saveOrder(orderToSave));
+    }
+
+    /** Runs any other {@link DataRetriever} call under the same concurrency limit. */
+    public <T> CompletableFuture<T> submit(Function<DataRetriever, T> call) {
+        return CompletableFuture.supplyAsync(
+                () -> {
+                    try {
+                        permits.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CompletionException(e);
+                    }
+                    try {
+                        return call.apply(delegate);
+                    } finally {
+                        permits.release();
+                    }
+                },
+                executor);
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /** Calls currently parked waiting for a database slot. */
+    public int getQueuedCalls() {
+        return permits.getQueueLength();
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
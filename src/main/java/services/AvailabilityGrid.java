@@ -0,0 +1,70 @@
+package services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import models.Table;
+
+/**
+ * Table availability over a service window split into fixed-size slots. For each table, bit
+ * {@code i} is set when the table is free for the whole of slot {@code i}.
+ */
+public class AvailabilityGrid {
+    private final Instant windowStart;
+    private final Duration slotDuration;
+    private final int slotCount;
+    private final List<Table> tables;
+    private final Map<Integer, BitSet> freeSlotsByTableId;
+
+    public AvailabilityGrid(
+            Instant windowStart,
+            Duration slotDuration,
+            int slotCount,
+            List<Table> tables,
+            Map<Integer, BitSet> freeSlotsByTableId) {
+        this.windowStart = windowStart;
+        this.slotDuration = slotDuration;
+        this.slotCount = slotCount;
+        this.tables = tables;
+        this.freeSlotsByTableId = freeSlotsByTableId;
+    }
+
+    public Instant getWindowStart() {
+        return windowStart;
+    }
+
+    public Duration getSlotDuration() {
+        return slotDuration;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public Instant getSlotStart(int slot) {
+        return windowStart.plus(slotDuration.multipliedBy(slot));
+    }
+
+    /** Tables ordered by number. */
+    public List<Table> getTables() {
+        return tables;
+    }
+
+    public BitSet getFreeSlots(int tableId) {
+        BitSet freeSlots = freeSlotsByTableId.get(tableId);
+        if (freeSlots == null) {
+            throw new IllegalArgumentException("Unknown table (id=" + tableId + ")");
+        }
+        return (BitSet) freeSlots.clone();
+    }
+
+    public boolean isFree(int tableId, int slot) {
+        if (slot < 0 || slot >= slotCount) {
+            throw new IndexOutOfBoundsException("slot " + slot + " outside [0, " + slotCount + ")");
+        }
+        BitSet freeSlots = freeSlotsByTableId.get(tableId);
+        return freeSlots != null && freeSlots.get(slot);
+    }
+}
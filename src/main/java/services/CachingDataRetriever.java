@@ -0,0 +1,155 @@
+package services;
+
+import cache.CacheStats;
+import cache.LruCache;
+import db.DBConnection;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import models.Dish;
+import models.DishIngredient;
+import models.Ingredient;
+import models.Table;
+
+/**
+ * DataRetriever that keeps menu reference data (dishes, recipes, ingredients and tables) in
+ * memory. Cached objects are never handed out: every call returns its own copy, which callers
+ * may modify. Dishes and ingredients are cached without their lazy loaders and the copies carry
+ * fresh ones, so stock history is never served from the cache.
+ */
+public class CachingDataRetriever extends DataRetriever {
+
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+    private static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+
+    private final LruCache<Integer, Dish> dishes;
+    private final LruCache<Integer, List<DishIngredient>> recipes;
+    private final LruCache<Integer, Ingredient> ingredients;
+    private final LruCache<Integer, Table> tables;
+
+    public CachingDataRetriever(DBConnection dbConnection) {
+        this(dbConnection, DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    public CachingDataRetriever(DBConnection dbConnection, int maxEntries, Duration ttl) {
+        super(dbConnection);
+        this.dishes = new LruCache<>(maxEntries, ttl);
+        this.recipes = new LruCache<>(maxEntries, ttl);
+        this.ingredients = new LruCache<>(maxEntries, ttl);
+        this.tables = new LruCache<>(maxEntries, ttl);
+    }
+
+    @Override
+    public Dish findDishById(int id) {
+        // Le cache ne garde que l'en-tête : chaque appel reçoit sa copie et son propre chargeur
+        Dish dish = withoutRecipe(dishes.get(id, key -> withoutRecipe(super.findDishById(key))));
+        dish.setDishIngredientsLoader(() -> findDishIngredientsByDishId(id));
+        return dish;
+    }
+
+    @Override
+    public List<DishIngredient> findDishIngredientsByDishId(int dishId) {
+        List<DishIngredient> cached =
+                recipes.get(dishId, key -> copyRecipe(super.findDishIngredientsByDishId(key), false));
+        return copyRecipe(cached, true);
+    }
+
+    @Override
+    public Ingredient findIngredientById(Integer idIngredient) {
+        if (idIngredient == null) {
+            throw new IllegalArgumentException("idIngredient must not be null");
+        }
+        // L'historique de stock n'est jamais mis en cache : il est relu à chaque premier accès
+        Ingredient ingredient =
+                withoutHistory(ingredients.get(idIngredient, key -> withoutHistory(super.findIngredientById(key))));
+        attachStockMovementLoader(ingredient);
+        return ingredient;
+    }
+
+    @Override
+    public Table findTableById(int id) {
+        // Table.getOrders() est modifiable : chaque appelant reçoit sa copie
+        Table cached = tables.get(id, super::findTableById);
+        Table table = new Table(cached.getId(), cached.getNumber());
+        table.setOrders(cached.getOrders());
+        return table;
+    }
+
+    @Override
+    public Dish saveDish(Dish dishToSave) {
+        invalidateDish(dishToSave.getId());
+        Dish savedDish = super.saveDish(dishToSave);
+        invalidateDish(savedDish.getId());
+        return savedDish;
+    }
+
+    @Override
+    public Ingredient saveIngredient(Ingredient toSave) {
+        Ingredient savedIngredient = super.saveIngredient(toSave);
+        invalidateIngredient(savedIngredient.getId());
+        return savedIngredient;
+    }
+
+    public void invalidateDish(int dishId) {
+        dishes.invalidate(dishId);
+        recipes.invalidate(dishId);
+    }
+
+    public void invalidateIngredient(int ingredientId) {
+        ingredients.invalidate(ingredientId);
+        // Les recettes embarquent l'ingrédient (nom, prix)
+        recipes.invalidateIf(recipe -> containsIngredient(recipe, ingredientId));
+    }
+
+    public void invalidateTables() {
+        tables.invalidateAll();
+    }
+
+    public void invalidateAll() {
+        dishes.invalidateAll();
+        recipes.invalidateAll();
+        ingredients.invalidateAll();
+        tables.invalidateAll();
+    }
+
+    public Map<String, CacheStats> getCacheStats() {
+        Map<String, CacheStats> stats = new LinkedHashMap<>();
+        stats.put("dish", dishes.getStats());
+        stats.put("recipe", recipes.getStats());
+        stats.put("ingredient", ingredients.getStats());
+        stats.put("table", tables.getStats());
+        return stats;
+    }
+
+    private static Dish withoutRecipe(Dish dish) {
+        return new Dish(dish.getId(), dish.getName(), dish.getDishType(), dish.getPrice());
+    }
+
+    private static Ingredient withoutHistory(Ingredient ingredient) {
+        return new Ingredient(ingredient.getId(), ingredient.getName(), ingredient.getPrice(), ingredient.getCategory());
+    }
+
+    /** Copies every line, its dish header and its ingredient; loaders only on the caller's copy. */
+    private List<DishIngredient> copyRecipe(List<DishIngredient> recipe, boolean withLoaders) {
+        List<DishIngredient> copy = new ArrayList<>(recipe.size());
+        for (DishIngredient di : recipe) {
+            Ingredient ingredient = withoutHistory(di.getIngredient());
+            if (withLoaders) {
+                attachStockMovementLoader(ingredient);
+            }
+            copy.add(new DishIngredient(withoutRecipe(di.getDish()), ingredient, di.getQuantity(), di.getUnit()));
+        }
+        return copy;
+    }
+
+    private boolean containsIngredient(List<DishIngredient> recipe, int ingredientId) {
+        for (DishIngredient di : recipe) {
+            if (di.getIngredient() != null && di.getIngredient().getId() == ingredientId) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
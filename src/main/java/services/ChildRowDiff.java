@@ -0,0 +1,120 @@
+package services;
+
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compares the child rows stored for a parent (dish_ingredient of a dish, dish_order of an order)
+ * with the incoming lines, so that only the rows that really changed are written.
+ *
+ * <p>An incoming row is paired with a stored one by id when it has one, otherwise by key
+ * (ingredient or dish id), preferring a stored row with the same content.
+ */
+final class ChildRowDiff {
+
+    /** A child row; {@code id} is 0 for incoming lines not read from the database. */
+    record Row(int id, int key, long amount, String detail) {
+        boolean sameContent(Row other) {
+            return key == other.key && amount == other.amount && Objects.equals(detail, other.detail);
+        }
+    }
+
+    private final List<Row> inserts = new ArrayList<>();
+    private final List<Row> updates = new ArrayList<>();
+    private final List<Integer> deletes = new ArrayList<>();
+    private int unchanged;
+
+    private ChildRowDiff() {}
+
+    static ChildRowDiff compute(List<Row> existing, List<Row> incoming) {
+        ChildRowDiff diff = new ChildRowDiff();
+        Map<Integer, Row> remaining = new LinkedHashMap<>();
+        for (Row row : existing) {
+            remaining.put(row.id(), row);
+        }
+
+        List<Row> unmatched = new ArrayList<>();
+        for (Row row : incoming) {
+            Row stored = row.id() > 0 ? remaining.remove(row.id()) : null;
+            if (stored != null) {
+                diff.pair(stored, row);
+            } else {
+                unmatched.add(row);
+            }
+        }
+
+        Map<Integer, Deque<Row>> byKey = new HashMap<>();
+        for (Row row : remaining.values()) {
+            byKey.computeIfAbsent(row.key(), k -> new ArrayDeque<>()).add(row);
+        }
+
+        // D'abord les lignes identiques, pour ne pas transformer un simple ajout en mise à jour
+        List<Row> changed = new ArrayList<>();
+        for (Row row : unmatched) {
+            Row stored = takeFirst(byKey.get(row.key()), row);
+            if (stored != null) {
+                remaining.remove(stored.id());
+                diff.unchanged++;
+            } else {
+                changed.add(row);
+            }
+        }
+        for (Row row : changed) {
+            Row stored = takeFirst(byKey.get(row.key()), null);
+            if (stored != null) {
+                remaining.remove(stored.id());
+                diff.pair(stored, row);
+            } else {
+                diff.inserts.add(row);
+            }
+        }
+
+        diff.deletes.addAll(remaining.keySet());
+        return diff;
+    }
+
+    private static Row takeFirst(Deque<Row> candidates, Row sameContentAs) {
+        if (candidates == null) {
+            return null;
+        }
+        for (var it = candidates.iterator(); it.hasNext(); ) {
+            Row candidate = it.next();
+            if (sameContentAs == null || candidate.sameContent(sameContentAs)) {
+                it.remove();
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private void pair(Row stored, Row incoming) {
+        if (stored.sameContent(incoming)) {
+            unchanged++;
+        } else {
+            updates.add(new Row(stored.id(), incoming.key(), incoming.amount(), incoming.detail()));
+        }
+    }
+
+    List<Row> inserts() {
+        return inserts;
+    }
+
+    /** Rows to update, carrying the stored id and the incoming content. */
+    List<Row> updates() {
+        return updates;
+    }
+
+    List<Integer> deletes() {
+        return deletes;
+    }
+
+    int unchanged() {
+        return unchanged;
+    }
+}
@@ -2,26 +2,225 @@ package services;
 
 import static java.sql.Types.INTEGER;
 
+import java.math.BigDecimal;
 import java.sql.*;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.OptionalInt;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import db.DBConnection;
 import models.*;
 
 public class DataRetriever {
 
+    private static final String EXCLUSION_VIOLATION = "23P01";
+    // Espace de clés des verrous consultatifs posés par ingrédient (clé = id de l'ingrédient)
+    private static final int STOCK_LOCK_NAMESPACE = 0x53544B;
+    private static final double STOCK_TOLERANCE = 0.005;
+    private static final int DEFAULT_INGREDIENT_BATCH_SIZE = 500;
+    private static final int DEFAULT_FETCH_SIZE = 500;
+    private static final int DEFAULT_ID_BLOCK_SIZE = 100;
+
     private final DBConnection dbConnection;
+    private volatile int stockSnapshotInterval = 1000;
+    private volatile TableAvailabilityIndex tableAvailabilityIndex;
+    private volatile StockLedger stockLedger;
+    private final IdAllocator idAllocator = new IdAllocator(DEFAULT_ID_BLOCK_SIZE);
+    private final RowSyncCounter dishIngredientSync = new RowSyncCounter();
+    private final RowSyncCounter dishOrderSync = new RowSyncCounter();
+    private final LongAdder postCommitFailures = new LongAdder();
 
     public DataRetriever(DBConnection dbConnection) {
         this.dbConnection = dbConnection;
     }
 
+    /** Number of movements recorded after the latest snapshot that triggers a new one. */
+    public void setStockSnapshotInterval(int stockSnapshotInterval) {
+        if (stockSnapshotInterval <= 0) {
+            throw new IllegalArgumentException("stockSnapshotInterval must be positive");
+        }
+        this.stockSnapshotInterval = stockSnapshotInterval;
+    }
+
+    /** Number of ids (and order references) reserved from a sequence in one round trip. */
+    public void setIdBlockSize(int idBlockSize) {
+        idAllocator.setBlockSize(idBlockSize);
+    }
+
+    /**
+     * Loads the bookings ending after {@code since} into memory. Availability queries for windows
+     * starting at or after {@code since} are then answered without hitting the database.
+     */
+    public void enableTableAvailabilityIndex(Instant since) {
+        TableAvailabilityIndex index = new TableAvailabilityIndex(since);
+        Connection connection = dbConnection.getDBConnection();
+        try {
+            index.reload(connection);
+            this.tableAvailabilityIndex = index;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(connection);
+        }
+    }
+
+    public void disableTableAvailabilityIndex() {
+        this.tableAvailabilityIndex = null;
+    }
+
+    /**
+     * Switches saveOrder to in-memory stock balances; see {@link StockLedger}. Orders left pending
+     * by a previous run are written first.
+     */
+    public StockLedger enableStockLedger(Duration flushInterval, int flushBatchSize) {
+        disableStockLedger();
+        StockLedger ledger = new StockLedger(dbConnection, this, flushInterval, flushBatchSize);
+        ledger.start();
+        this.stockLedger = ledger;
+        return ledger;
+    }
+
+    /** Flushes the queued movements and goes back to checking stock in the database. */
+    public void disableStockLedger() {
+        StockLedger ledger = stockLedger;
+        if (ledger != null) {
+            stockLedger = null;
+            ledger.close();
+        }
+    }
+
+    public StockLedger getStockLedger() {
+        return stockLedger;
+    }
+
     public boolean isTableAvailable(int tableId, Instant arrival, Instant departure) {
+        TableAvailabilityIndex index = tableAvailabilityIndex;
+        if (index != null && index.covers(arrival) && index.knowsTable(tableId)) {
+            return index.isAvailable(tableId, arrival, departure);
+        }
+
+        Connection connection = dbConnection.getDBConnection();
+        try {
+            return isTableAvailable(connection, tableId, arrival, departure);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(connection);
+        }
+    }
+
+    public List<Table> findAvailableTables(Instant arrival, Instant departure) {
+        TableAvailabilityIndex index = tableAvailabilityIndex;
+        if (index != null && index.covers(arrival)) {
+            return index.findAvailableTables(arrival, departure);
+        }
+
+        Connection connection = dbConnection.getDBConnection();
+        try {
+            return findAvailableTables(connection, arrival, departure);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(connection);
+        }
+    }
+
+    public AvailabilityGrid findAvailabilityGrid(Instant from, Instant to, Duration slotDuration) {
+        if (from == null || to == null || slotDuration == null) {
+            throw new IllegalArgumentException("from, to and slotDuration must not be null");
+        }
+        if (!from.isBefore(to)) {
+            throw new IllegalArgumentException("from must be before to");
+        }
+        if (slotDuration.isNegative() || slotDuration.isZero()) {
+            throw new IllegalArgumentException("slotDuration must be positive");
+        }
+
+        long slotNanos = slotDuration.toNanos();
+        long windowNanos = Duration.between(from, to).toNanos();
+        int slotCount = Math.toIntExact((windowNanos + slotNanos - 1) / slotNanos);
+        // Le dernier créneau peut dépasser "to" : on lit les réservations jusqu'à sa fin
+        Instant gridEnd = from.plus(slotDuration.multipliedBy(slotCount));
+
+        String sql = """
+            SELECT rt.id, rt.number, o.arrival_datetime, o.departure_datetime
+            FROM restaurant_table rt
+            LEFT JOIN "order" o ON o.id_table = rt.id
+                AND o.arrival_datetime < ?
+                AND o.departure_datetime > ?
+            ORDER BY rt.number, rt.id
+            """;
+
+        List<Table> tables = new ArrayList<>();
+        Map<Integer, BitSet> freeSlotsByTableId = new HashMap<>();
+        Connection connection = dbConnection.getDBConnection();
+
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setTimestamp(1, Timestamp.from(gridEnd));
+            ps.setTimestamp(2, Timestamp.from(from));
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int tableId = rs.getInt("id");
+                    BitSet freeSlots = freeSlotsByTableId.get(tableId);
+                    if (freeSlots == null) {
+                        tables.add(new Table(tableId, rs.getInt("number")));
+                        freeSlots = new BitSet(slotCount);
+                        freeSlots.set(0, slotCount);
+                        freeSlotsByTableId.put(tableId, freeSlots);
+                    }
+
+                    Timestamp arrival = rs.getTimestamp("arrival_datetime");
+                    if (arrival == null) {
+                        continue;
+                    }
+                    long busyFrom = Duration.between(from, arrival.toInstant()).toNanos();
+                    long busyTo =
+                            Duration.between(from, rs.getTimestamp("departure_datetime").toInstant()).toNanos();
+                    int firstSlot = (int) Math.max(0, Math.floorDiv(busyFrom, slotNanos));
+                    int endSlot = (int) Math.min(slotCount, Math.floorDiv(busyTo + slotNanos - 1, slotNanos));
+                    if (firstSlot < endSlot) {
+                        freeSlots.clear(firstSlot, endSlot);
+                    }
+                }
+            }
+
+            return new AvailabilityGrid(from, slotDuration, slotCount, tables, freeSlotsByTableId);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(connection);
+        }
+    }
+
+    public Table findTableById(int id) {
+        Connection connection = dbConnection.getDBConnection();
+        try {
+            return findTableById(connection, id);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(connection);
+        }
+    }
+
+    private boolean isTableAvailable(Connection conn, int tableId, Instant arrival, Instant departure)
+            throws SQLException {
         String sql = """
             SELECT COUNT(*) as overlapping_orders
             FROM "order" o
@@ -30,27 +229,24 @@ public class DataRetriever {
             AND o.departure_datetime > ?
         """;
 
-        Connection connection = dbConnection.getDBConnection();
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, tableId);
             ps.setTimestamp(2, Timestamp.from(departure));
             ps.setTimestamp(3, Timestamp.from(arrival));
 
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("overlapping_orders") == 0;
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("overlapping_orders") == 0;
+                }
+                return true;
             }
-            return true;
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            dbConnection.close(connection);
         }
     }
 
-    public List<Integer> findAvailableTables(Instant arrival, Instant departure) {
+    private List<Table> findAvailableTables(Connection conn, Instant arrival, Instant departure)
+            throws SQLException {
         String sql = """
-            SELECT rt.id
+            SELECT rt.id, rt.number
             FROM restaurant_table rt
             WHERE NOT EXISTS (
                 SELECT 1 
@@ -62,42 +258,32 @@ public class DataRetriever {
             ORDER BY rt.number
         """;
 
-        List<Integer> availableTables = new ArrayList<>();
-        Connection connection = dbConnection.getDBConnection();
-
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+        List<Table> availableTables = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setTimestamp(1, Timestamp.from(departure));
             ps.setTimestamp(2, Timestamp.from(arrival));
 
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                availableTables.add(rs.getInt("id"));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    availableTables.add(new Table(rs.getInt("id"), rs.getInt("number")));
+                }
             }
-            return availableTables;
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            dbConnection.close(connection);
         }
+        return availableTables;
     }
 
-    public Table findTableById(int id) {
+    private Table findTableById(Connection conn, int id) throws SQLException {
         String sql = "SELECT id, number FROM restaurant_table WHERE id = ?";
-        Connection connection = dbConnection.getDBConnection();
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, id);
-            ResultSet rs = ps.executeQuery();
-
-            if (rs.next()) {
-                return new Table(rs.getInt("id"), rs.getInt("number"));
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return new Table(rs.getInt("id"), rs.getInt("number"));
+                }
             }
-            throw new RuntimeException("Table not found (id=" + id + ")");
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            dbConnection.close(connection);
         }
+        throw new RuntimeException("Table not found (id=" + id + ")");
     }
 
 
@@ -106,79 +292,197 @@ public class DataRetriever {
             throw new IllegalArgumentException("reference must not be null or blank");
         }
 
+        List<Order> orders = findOrdersByReferences(List.of(reference));
+        if (orders.isEmpty()) {
+            throw new RuntimeException("Order not found (reference=" + reference + ")");
+        }
+        return orders.get(0);
+    }
+
+    /** Loads the orders with the given references; unknown references are skipped. */
+    public List<Order> findOrdersByReferences(Collection<String> references) {
+        if (references == null) {
+            throw new IllegalArgumentException("references must not be null");
+        }
+        if (references.isEmpty()) {
+            return new ArrayList<>();
+        }
+
         Connection conn = dbConnection.getDBConnection();
+        try {
+            return loadOrders(
+                    conn,
+                    "o.reference = ANY(?)",
+                    ps -> ps.setArray(1, conn.createArrayOf("varchar", references.toArray())));
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(conn);
+        }
+    }
+
+    /** Loads the orders created in {@code [from, to)}. */
+    public List<Order> findOrdersBetween(Instant from, Instant to) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("from and to must not be null");
+        }
 
+        Connection conn = dbConnection.getDBConnection();
         try {
-            String findOrderSql = """
-                SELECT o.id, o.reference, o.creation_datetime,
-                       o.id_table, o.arrival_datetime, o.departure_datetime
-                FROM "order" o
-                WHERE o.reference = ?
-                """;
+            return loadOrders(
+                    conn,
+                    "o.creation_datetime >= ? AND o.creation_datetime < ?",
+                    ps -> {
+                        ps.setTimestamp(1, Timestamp.from(from));
+                        ps.setTimestamp(2, Timestamp.from(to));
+                    });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(conn);
+        }
+    }
+
+    private List<Order> loadOrders(Connection conn, String condition, StatementBinder binder)
+            throws SQLException {
+        String findOrdersSql = """
+            SELECT o.id, o.reference, o.creation_datetime,
+                   o.arrival_datetime, o.departure_datetime,
+                   rt.id     AS table_id,
+                   rt.number AS table_number
+            FROM "order" o
+            JOIN restaurant_table rt ON rt.id = o.id_table
+            WHERE %s
+            ORDER BY o.id
+            """.formatted(condition);
 
-            int orderId;
-            String savedReference;
-            Instant creationDateTime;
-            int tableId;
-            Instant arrivalDateTime;
-            Instant departureDateTime;
+        Map<Integer, Table> tables = new HashMap<>();
+        Map<Integer, OrderHeader> headers = new LinkedHashMap<>();
 
-            try (PreparedStatement ps = conn.prepareStatement(findOrderSql)) {
-                ps.setString(1, reference);
-                try (ResultSet rs = ps.executeQuery()) {
-                    if (!rs.next()) {
-                        throw new RuntimeException("Order not found (reference=" + reference + ")");
+        try (PreparedStatement ps = conn.prepareStatement(findOrdersSql)) {
+            binder.bind(ps);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int tableId = rs.getInt("table_id");
+                    Table table = tables.get(tableId);
+                    if (table == null) {
+                        table = new Table(tableId, rs.getInt("table_number"));
+                        tables.put(tableId, table);
                     }
-                    orderId = rs.getInt("id");
-                    savedReference = rs.getString("reference");
-                    creationDateTime = rs.getTimestamp("creation_datetime").toInstant();
-                    tableId = rs.getInt("id_table");
-                    arrivalDateTime = rs.getTimestamp("arrival_datetime").toInstant();
-                    departureDateTime = rs.getTimestamp("departure_datetime").toInstant();
-                }
-            }
-
-            // Charger la table
-            Table table = findTableById(tableId);
-            TableOrder tableOrder = new TableOrder(table, arrivalDateTime, departureDateTime);
-
-            String findLinesSql = """
-                SELECT dor.id            AS dish_order_id,
-                       dor.id_dish       AS id_dish,
-                       dor.quantity      AS quantity,
-                       d.id              AS dish_id,
-                       d.name            AS dish_name,
-                       d.dish_type       AS dish_type,
-                       d.price           AS dish_price
-                FROM dish_order dor
-                JOIN dish d ON d.id = dor.id_dish
-                WHERE dor.id_order = ?
-                """;
 
-            List<DishOrder> dishOrders = new ArrayList<>();
+                    int orderId = rs.getInt("id");
+                    headers.put(
+                            orderId,
+                            new OrderHeader(
+                                    orderId,
+                                    rs.getString("reference"),
+                                    rs.getTimestamp("creation_datetime").toInstant(),
+                                    new TableOrder(
+                                            table,
+                                            rs.getTimestamp("arrival_datetime").toInstant(),
+                                            rs.getTimestamp("departure_datetime").toInstant())));
+                }
+            }
+        }
+
+        if (headers.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        String findLinesSql = """
+            SELECT dor.id            AS dish_order_id,
+                   dor.id_order      AS id_order,
+                   dor.quantity      AS quantity,
+                   d.id              AS dish_id,
+                   d.name            AS dish_name,
+                   d.dish_type       AS dish_type,
+                   d.price           AS dish_price
+            FROM dish_order dor
+            JOIN dish d ON d.id = dor.id_dish
+            WHERE dor.id_order = ANY(?)
+            ORDER BY dor.id_order, dor.id
+            """;
 
-            try (PreparedStatement ps = conn.prepareStatement(findLinesSql)) {
-                ps.setInt(1, orderId);
-                try (ResultSet rs = ps.executeQuery()) {
-                    while (rs.next()) {
-                        Dish dish = mapDish(rs, "dish_id", "dish_name", "dish_type", "dish_price");
-                        int dishOrderId = rs.getInt("dish_order_id");
-                        int quantity = rs.getInt("quantity");
-                        dishOrders.add(new DishOrder(dishOrderId, dish, quantity));
+        Map<Integer, List<DishOrder>> linesByOrderId = new HashMap<>();
+        Map<Integer, Dish> dishes = new HashMap<>();
+
+        DishRowMapper dishMapper = DishRowMapper.prefixed();
+        try (PreparedStatement ps = conn.prepareStatement(findLinesSql)) {
+            ps.setArray(1, conn.createArrayOf("integer", headers.keySet().toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int dishId = rs.getInt("dish_id");
+                    Dish dish = dishes.get(dishId);
+                    if (dish == null) {
+                        dish = dishMapper.map(rs);
+                        dishes.put(dishId, dish);
                     }
+                    linesByOrderId
+                            .computeIfAbsent(rs.getInt("id_order"), id -> new ArrayList<>())
+                            .add(new DishOrder(rs.getInt("dish_order_id"), dish, rs.getInt("quantity")));
                 }
             }
+        }
 
-            return new Order(orderId, savedReference, creationDateTime, dishOrders, tableOrder);
+        attachBatchDishIngredientsLoader(dishes.values());
+
+        List<Order> orders = new ArrayList<>();
+        for (OrderHeader header : headers.values()) {
+            orders.add(
+                    new Order(
+                            header.id(),
+                            header.reference(),
+                            header.creationDateTime(),
+                            linesByOrderId.getOrDefault(header.id(), new ArrayList<>()),
+                            header.tableOrder()));
+        }
+        return orders;
+    }
 
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+    public Order saveOrder(Order orderToSave) {
+        OrderWrite write = prepareOrderWrite(orderToSave);
+
+        StockLedger ledger = stockLedger;
+        boolean holdsFlushes = ledger != null && orderToSave.getId() > 0;
+        if (holdsFlushes) {
+            // Les sorties de la commande doivent être en base pour pouvoir être annulées, et
+            // aucun reload ne doit lire leur suppression avant movementsDeleted
+            ledger.flushAndHold();
+        }
+
+        try {
+            Connection conn = dbConnection.getDBConnection();
+            try {
+                conn.setAutoCommit(false);
+                try {
+                    writeOrder(conn, write, ledger);
+                    conn.commit();
+                } catch (SQLException | RuntimeException e) {
+                    rollback(conn);
+                    undoOrderWrite(write, ledger);
+                    throw orderFailure(conn, write, e);
+                }
+                afterOrderCommit(write, ledger);
+                return write.savedOrder;
+
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            } finally {
+                try {
+                    conn.setAutoCommit(true);
+                } catch (SQLException ignored) {
+                }
+                dbConnection.close(conn);
+            }
         } finally {
-            dbConnection.close(conn);
+            if (holdsFlushes) {
+                ledger.resumeFlushes();
+            }
         }
     }
 
-    public Order saveOrder(Order orderToSave) {
+    /** Validates an order before any database work; the result is written by {@link #writeOrder}. */
+    OrderWrite prepareOrderWrite(Order orderToSave) {
         List<DishOrder> dishOrders = validateOrder(orderToSave);
 
         // Vérifier que la table est spécifiée
@@ -187,7 +491,6 @@ public class DataRetriever {
             throw new IllegalArgumentException("Table must be specified for the order");
         }
 
-        Table table = tableOrder.getTable();
         Instant arrival = tableOrder.getArrivalDateTime();
         Instant departure = tableOrder.getDepartureDateTime();
 
@@ -199,68 +502,177 @@ public class DataRetriever {
             throw new IllegalArgumentException("Arrival datetime must be before departure datetime");
         }
 
-        // Vérification améliorée de la disponibilité de la table
-        if (!isTableAvailable(table.getId(), arrival, departure)) {
-            List<Integer> availableTables = findAvailableTables(arrival, departure);
+        return new OrderWrite(orderToSave, dishOrders, aggregateDishQuantities(dishOrders));
+    }
 
-            if (availableTables.isEmpty()) {
-                throw new RuntimeException("No tables are available at the requested time");
-            } else {
-                // Charger les numéros des tables disponibles
-                List<Integer> availableTableNumbers = new ArrayList<>();
-                for (Integer tableId : availableTables) {
-                    Table availableTable = findTableById(tableId);
-                    availableTableNumbers.add(availableTable.getNumber());
-                }
+    /** Writes the order, its lines and its stock consumption in the caller's transaction. */
+    void writeOrder(Connection conn, OrderWrite write, StockLedger ledger) throws SQLException {
+        Order orderToSave = write.orderToSave;
+        write.requiredQuantities = computeRequiredQuantities(conn, write.dishQuantities);
+
+        if (ledger == null) {
+            // Vérification et déduction du stock sous verrou, pour que deux commandes
+            // concurrentes ne puissent pas consommer le même stock ; une commande modifiée
+            // rend aussi le stock de ses anciens ingrédients
+            Set<Integer> lockedIds = new HashSet<>(write.requiredQuantities.keySet());
+            if (write.isUpdate()) {
+                lockedIds.addAll(findMovementIngredientsOfOrders(conn, List.of(orderToSave.getId())));
+            }
+            lockIngredients(conn, lockedIds);
+            if (write.isUpdate()) {
+                releaseOrderConsumption(conn, orderToSave.getId());
+            }
+            checkStockOrThrow(conn, write.requiredQuantities);
+        } else {
+            if (write.isUpdate()) {
+                // Le ledger réserve en mémoire, mais supprimer les sorties touche aux snapshots
+                lockIngredients(conn, findMovementIngredientsOfOrders(conn, List.of(orderToSave.getId())));
+                Map<Integer, Double> released = releaseOrderConsumption(conn, orderToSave.getId());
+                write.releasedMovements = Map.copyOf(released);
+                releasePendingConsumption(conn, orderToSave.getId())
+                        .forEach((ingredientId, quantity) -> released.merge(ingredientId, quantity, Double::sum));
+                write.released = released;
+                ledger.credit(write.released);
+            }
+            write.reserved = reserveInLedger(ledger, write.requiredQuantities);
+        }
 
-                String availableTablesStr = availableTableNumbers.toString()
-                        .replace("[", "")
-                        .replace("]", "");
+        // La contrainte d'exclusion sur "order" garantit la disponibilité de la table
+        write.savedOrder = upsertOrderAndLines(conn, write);
 
-                throw new RuntimeException(
-                        "Table " + table.getNumber() + " is not available. " +
-                                "Available tables: " + availableTablesStr
-                );
+        if (ledger == null) {
+            recordOrderConsumption(conn, write.savedOrder.getId(), write.requiredQuantities, write.consumedAt);
+        } else {
+            markConsumptionPending(conn, write.savedOrder.getId(), write.requiredQuantities, write.consumedAt);
+        }
+    }
+
+    /**
+     * Turns the failure of {@link #writeOrder} into the exception reported to the caller. Must be
+     * called once the failed work has been rolled back, as it may query the database again.
+     */
+    RuntimeException orderFailure(Connection conn, OrderWrite write, Exception e) throws SQLException {
+        if (e instanceof SQLException sqlException) {
+            if (EXCLUSION_VIOLATION.equals(sqlException.getSQLState())) {
+                TableOrder tableOrder = write.orderToSave.getTableOrder();
+                return tableNotAvailable(
+                        conn,
+                        tableOrder.getTable(),
+                        tableOrder.getArrivalDateTime(),
+                        tableOrder.getDepartureDateTime());
             }
+            return new RuntimeException(e);
         }
+        return (RuntimeException) e;
+    }
 
-        Connection conn = dbConnection.getDBConnection();
+    void undoOrderWrite(OrderWrite write, StockLedger ledger) {
+        undoLedgerChanges(ledger, write.reserved, write.released);
+    }
 
+    /**
+     * Bookkeeping once the order is committed. Never throws: the order is saved, so its ledger
+     * reservation must stand whatever happens here; failures are counted in
+     * {@link #getPostCommitFailures()}.
+     */
+    void afterOrderCommit(OrderWrite write, StockLedger ledger) {
+        dishOrderSync.add(write.lineDiff);
+        if (ledger != null) {
+            try {
+                ledger.movementsDeleted(write.releasedMovements);
+                ledger.enqueue(
+                        write.savedOrder.getId(), write.consumedAt, toConsumption(write.requiredQuantities));
+            } catch (RuntimeException e) {
+                // La commande reste dans stock_ledger_pending : ses sorties seront rejouées au démarrage
+                postCommitFailures.increment();
+            }
+        }
         try {
-            conn.setAutoCommit(false);
+            updateTableAvailabilityIndex(write.savedOrder);
+        } catch (RuntimeException e) {
+            tableAvailabilityIndex = null;
+            postCommitFailures.increment();
+        }
+    }
 
-            Instant checkInstant =
-                    orderToSave.getCreationDateTime() != null
-                            ? orderToSave.getCreationDateTime()
-                            : Instant.now();
+    /** Saved orders whose ledger queueing or availability index update failed after commit. */
+    public long getPostCommitFailures() {
+        return postCommitFailures.sum();
+    }
+
+    /**
+     * Locks at once, in ascending order, every ingredient used by these dishes or consumed so far
+     * by these updated orders, for a transaction that will save several orders: locking order by
+     * order could interleave with other writers. {@link #writeOrder} then only takes locks already
+     * held.
+     */
+    void lockIngredientsOfOrders(
+            Connection conn, Collection<Integer> dishIds, Collection<Integer> updatedOrderIds)
+            throws SQLException {
+        Set<Integer> ingredientIds = new HashSet<>();
+        if (!dishIds.isEmpty()) {
+            String sql = "SELECT DISTINCT id_ingredient FROM dish_ingredient WHERE id_dish = ANY(?)";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setArray(1, conn.createArrayOf("integer", dishIds.toArray()));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        ingredientIds.add(rs.getInt("id_ingredient"));
+                    }
+                }
+            }
+        }
+        ingredientIds.addAll(findMovementIngredientsOfOrders(conn, updatedOrderIds));
+        lockIngredients(conn, ingredientIds);
+    }
 
-            Map<Integer, Integer> dishQuantities = aggregateDishQuantities(dishOrders);
-            Map<Integer, Double> requiredQuantities = computeRequiredQuantities(conn, dishQuantities);
-            checkStockOrThrow(conn, requiredQuantities, checkInstant);
+    private Set<Integer> findMovementIngredientsOfOrders(Connection conn, Collection<Integer> orderIds)
+            throws SQLException {
+        Set<Integer> ingredientIds = new HashSet<>();
+        if (orderIds.isEmpty()) {
+            return ingredientIds;
+        }
+        String sql = "SELECT DISTINCT id_ingredient FROM stock_movement WHERE id_order = ANY(?)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setArray(1, conn.createArrayOf("integer", orderIds.toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ingredientIds.add(rs.getInt("id_ingredient"));
+                }
+            }
+        }
+        return ingredientIds;
+    }
 
-            Order savedOrder = upsertOrderAndLines(conn, orderToSave, dishOrders);
+    private void updateTableAvailabilityIndex(Order savedOrder) {
+        TableAvailabilityIndex index = tableAvailabilityIndex;
+        if (index == null) {
+            return;
+        }
+        // Une réservation modifiée remplace l'ancien créneau de la même commande
+        index.putBooking(
+                savedOrder.getId(),
+                savedOrder.getTable().getId(),
+                savedOrder.getArrivalDateTime(),
+                savedOrder.getDepartureDateTime());
+    }
 
-            conn.commit();
-            return savedOrder;
+    private TableUnavailableException tableNotAvailable(
+            Connection conn, Table table, Instant arrival, Instant departure) throws SQLException {
+        return new TableUnavailableException(
+                table, arrival, departure, findAvailableTables(conn, arrival, departure));
+    }
 
-        } catch (SQLException e) {
-            try {
-                conn.rollback();
-            } catch (SQLException ex) {
-                throw new RuntimeException("Rollback failed", ex);
-            }
-            throw new RuntimeException(e);
-        } finally {
-            try {
-                conn.setAutoCommit(true);
-            } catch (SQLException ignored) {
-            }
-            dbConnection.close(conn);
+    private void rollback(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException ex) {
+            throw new RuntimeException("Rollback failed", ex);
         }
     }
 
-    private Order upsertOrderAndLines(Connection conn, Order orderToSave, List<DishOrder> dishOrders)
-            throws SQLException {
+    private Order upsertOrderAndLines(Connection conn, OrderWrite write) throws SQLException {
+        Order orderToSave = write.orderToSave;
+        List<DishOrder> dishOrders = write.dishOrders;
 
         String upsertOrderSql = """
             INSERT INTO "order"(id, reference, creation_datetime, 
@@ -287,11 +699,11 @@ public class DataRetriever {
             int idParam =
                     orderToSave.getId() > 0
                             ? orderToSave.getId()
-                            : getNextId(conn, "\"order\"", "Unable to generate new id for order");
+                            : idAllocator.nextId(conn, "\"order\"");
 
             String reference = orderToSave.getReference();
             if (reference == null || reference.isBlank() || !reference.matches("ORD\\d{5}")) {
-                reference = generateOrderReference(conn);
+                reference = idAllocator.nextOrderReference(conn);
             }
 
             Instant creationDateTime =
@@ -321,30 +733,24 @@ public class DataRetriever {
             }
         }
 
-        try (PreparedStatement ps =
-                     conn.prepareStatement("DELETE FROM dish_order WHERE id_order = ?")) {
-            ps.setInt(1, generatedOrderId);
-            ps.executeUpdate();
-        }
-
-        String insertDishOrderSql = """
-            INSERT INTO dish_order(id_order, id_dish, quantity)
-            VALUES (?, ?, ?)
-            """;
-
-        try (PreparedStatement ps = conn.prepareStatement(insertDishOrderSql)) {
-            for (DishOrder dishOrder : dishOrders) {
-                int dishId = dishOrder.getDish().getId();
-                ps.setInt(1, generatedOrderId);
-                ps.setInt(2, dishId);
-                ps.setInt(3, dishOrder.getQuantity());
-                ps.addBatch();
-            }
-            ps.executeBatch();
+        List<ChildRowDiff.Row> incomingLines = new ArrayList<>(dishOrders.size());
+        for (DishOrder dishOrder : dishOrders) {
+            incomingLines.add(new ChildRowDiff.Row(
+                    dishOrder.getId(), dishOrder.getDish().getId(), toHundredths(dishOrder.getQuantity()), null));
         }
+        List<ChildRowDiff.Row> storedLines =
+                orderToSave.getId() > 0 ? findDishOrderRows(conn, generatedOrderId) : List.of();
+        write.lineDiff = ChildRowDiff.compute(storedLines, incomingLines);
+        writeChildRows(
+                conn,
+                write.lineDiff,
+                generatedOrderId,
+                "INSERT INTO dish_order(id_order, id_dish, quantity) VALUES (?, ?, ?)",
+                "UPDATE dish_order SET id_dish = ?, quantity = ? WHERE id = ?",
+                "DELETE FROM dish_order WHERE id = ANY(?)");
 
         // Charger la table sauvegardée
-        Table savedTable = findTableById(savedTableId);
+        Table savedTable = findTableById(conn, savedTableId);
         TableOrder savedTableOrder = new TableOrder(savedTable, savedArrivalDateTime, savedDepartureDateTime);
 
         return new Order(generatedOrderId, savedReference, savedCreationDateTime,
@@ -362,9 +768,11 @@ public class DataRetriever {
             ResultSet rs = ps.executeQuery();
 
             if (rs.next()) {
-                Dish dish = mapDish(rs, "id", "name", "dish_type", "price");
+                Dish dish = DishRowMapper.plain().map(rs);
 
-                dish.setDishIngredients(findDishIngredientsByDishId(dish.getId()));
+                // La recette n'est chargée qu'au premier accès
+                int dishId = dish.getId();
+                dish.setDishIngredientsLoader(() -> findDishIngredientsByDishId(dishId));
                 return dish;
             }
             throw new RuntimeException("Dish not found (id=" + id + ")");
@@ -376,7 +784,70 @@ public class DataRetriever {
     }
 
     public List<DishIngredient> findDishIngredientsByDishId(int dishId) {
-        List<DishIngredient> result = new ArrayList<>();
+        Connection connection = dbConnection.getDBConnection();
+
+        try {
+            return loadDishIngredients(connection, List.of(dishId)).getOrDefault(dishId, new ArrayList<>());
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(connection);
+        }
+    }
+
+    /** Loads the recipes of all the given dishes in one query. */
+    public void fetchDishIngredients(Collection<Dish> dishes) {
+        if (dishes == null || dishes.isEmpty()) {
+            return;
+        }
+
+        Set<Integer> dishIds = new HashSet<>();
+        for (Dish dish : dishes) {
+            dishIds.add(dish.getId());
+        }
+
+        Connection connection = dbConnection.getDBConnection();
+        try {
+            Map<Integer, List<DishIngredient>> recipes = loadDishIngredients(connection, dishIds);
+            for (Dish dish : dishes) {
+                dish.setDishIngredients(recipes.getOrDefault(dish.getId(), new ArrayList<>()));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(connection);
+        }
+    }
+
+    public List<StockMouvement> findStockMovementsByIngredientId(int ingredientId) {
+        String sql = """
+            SELECT id, quantity, type, unit, creation_datetime
+            FROM stock_movement
+            WHERE id_ingredient = ?
+            ORDER BY creation_datetime, id
+            """;
+
+        List<StockMouvement> movements = new ArrayList<>();
+        Connection connection = dbConnection.getDBConnection();
+
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setInt(1, ingredientId);
+            try (ResultSet rs = ps.executeQuery()) {
+                StockMovementRowMapper movementMapper = new StockMovementRowMapper();
+                while (rs.next()) {
+                    movements.add(movementMapper.map(rs));
+                }
+            }
+            return movements;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(connection);
+        }
+    }
+
+    private Map<Integer, List<DishIngredient>> loadDishIngredients(
+            Connection conn, Collection<Integer> dishIds) throws SQLException {
         String sql =
                 """
                     SELECT di.id_dish,
@@ -394,31 +865,51 @@ public class DataRetriever {
                     FROM dish_ingredient di
                     JOIN dish d ON d.id = di.id_dish
                     JOIN ingredient i ON i.id = di.id_ingredient
-                    WHERE di.id_dish = ?
+                    WHERE di.id_dish = ANY(?)
                 """;
-        Connection connection = dbConnection.getDBConnection();
-
-        try {
-            PreparedStatement ps = connection.prepareStatement(sql);
-            ps.setInt(1, dishId);
-            ResultSet rs = ps.executeQuery();
 
-            while (rs.next()) {
-                Dish dish = mapDish(rs, "dish_id", "dish_name", "dish_type", "dish_price");
+        Map<Integer, List<DishIngredient>> recipes = new HashMap<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setArray(1, conn.createArrayOf("integer", dishIds.toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                DishRowMapper dishMapper = DishRowMapper.prefixed();
+                IngredientRowMapper ingredientMapper = IngredientRowMapper.prefixed();
+                int quantityColumn = rs.findColumn("quantity_required");
+                int unitColumn = rs.findColumn("unit");
+                while (rs.next()) {
+                    Dish dish = dishMapper.map(rs);
 
-                Ingredient ingredient =
-                        mapIngredient(rs, "ingredient_id", "ingredient_name", "ingredient_price", "category");
+                    Ingredient ingredient = ingredientMapper.map(rs);
+                    attachStockMovementLoader(ingredient);
 
-                double quantity = rs.getDouble("quantity_required");
-                Unit unit = Unit.valueOf(rs.getString("unit"));
+                    double quantity = rs.getDouble(quantityColumn);
+                    Unit unit = EnumLookup.UNIT.parse(rs.getString(unitColumn));
 
-                result.add(new DishIngredient(dish, ingredient, quantity, unit));
+                    recipes.computeIfAbsent(dish.getId(), id -> new ArrayList<>())
+                            .add(new DishIngredient(dish, ingredient, quantity, unit));
+                }
             }
-            return result;
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            dbConnection.close(connection);
+        }
+        return recipes;
+    }
+
+    void attachStockMovementLoader(Ingredient ingredient) {
+        int ingredientId = ingredient.getId();
+        ingredient.setStockMovementLoader(() -> findStockMovementsByIngredientId(ingredientId));
+    }
+
+    /**
+     * Makes the recipes of a list of dishes load lazily, all together, the first time any of them
+     * is accessed.
+     */
+    private void attachBatchDishIngredientsLoader(Collection<Dish> dishes) {
+        if (dishes.isEmpty()) {
+            return;
+        }
+        DishIngredientsBatch batch = new DishIngredientsBatch(dishes);
+        for (Dish dish : dishes) {
+            int dishId = dish.getId();
+            dish.setDishIngredientsLoader(() -> batch.get(dishId));
         }
     }
 
@@ -453,36 +944,56 @@ public class DataRetriever {
     }
 
     public List<Ingredient> createIngredients(List<Ingredient> newIngredients) {
+        return createIngredients(newIngredients, DEFAULT_INGREDIENT_BATCH_SIZE);
+    }
+
+    public List<Ingredient> createIngredients(List<Ingredient> newIngredients, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
         checkDuplicatesInList(newIngredients);
+        if (newIngredients.isEmpty()) {
+            return new ArrayList<>();
+        }
+
         Connection conn = dbConnection.getDBConnection();
 
         try {
             conn.setAutoCommit(false);
+
+            List<String> names = new ArrayList<>();
             for (Ingredient ingredient : newIngredients) {
-                if (ingredientExists(conn, ingredient.getName())) {
-                    throw new RuntimeException(
-                            "Ingredient already exists in database: " + ingredient.getName());
-                }
-                String sql =
-                        "INSERT INTO ingredient(name, category, price) VALUES (?, ?::ingredient_category, ?)";
-                try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                    ps.setString(1, ingredient.getName());
-                    ps.setString(2, ingredient.getCategory().name());
-                    ps.setDouble(3, ingredient.getPrice());
-                    ps.executeUpdate();
+                names.add(ingredient.getName());
+            }
+            List<String> existingNames = findExistingIngredientNames(conn, names);
+            if (!existingNames.isEmpty()) {
+                throw new RuntimeException(
+                        "Ingredient already exists in database: " + String.join(", ", existingNames));
+            }
+
+            Map<String, Ingredient> savedByName = new HashMap<>();
+            for (int from = 0; from < newIngredients.size(); from += batchSize) {
+                List<Ingredient> batch =
+                        newIngredients.subList(from, Math.min(from + batchSize, newIngredients.size()));
+                for (Ingredient saved : insertIngredients(conn, batch)) {
+                    savedByName.put(saved.getName(), saved);
                 }
             }
 
             conn.commit();
-            return newIngredients;
 
-        } catch (SQLException e) {
-            try {
-                conn.rollback();
-            } catch (SQLException ex) {
-                throw new RuntimeException("Rollback failed", ex);
+            List<Ingredient> savedIngredients = new ArrayList<>();
+            for (Ingredient ingredient : newIngredients) {
+                savedIngredients.add(savedByName.get(ingredient.getName()));
             }
+            return savedIngredients;
+
+        } catch (SQLException e) {
+            rollback(conn);
             throw new RuntimeException("Transaction failed: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            rollback(conn);
+            throw e;
         } finally {
             try {
                 conn.setAutoCommit(true);
@@ -496,6 +1007,7 @@ public class DataRetriever {
         Connection conn = dbConnection.getDBConnection();
 
         try {
+            conn.setAutoCommit(false);
             boolean isUpdate = toSave.getId() > 0;
 
             if (!isUpdate && ingredientExists(conn, toSave.getName())) {
@@ -504,15 +1016,38 @@ public class DataRetriever {
 
             Ingredient savedIngredient = upsertIngredient(conn, toSave);
 
-            if (toSave.getStockMovementList() != null && !toSave.getStockMovementList().isEmpty()) {
-                saveStockMovements(conn, savedIngredient.getId(), toSave.getStockMovementList());
+            // Un historique jamais chargé n'a pas été modifié ; un historique chargé mais non
+            // remplacé n'apporte que les mouvements ajoutés (id 0)
+            List<StockMouvement> movements = List.of();
+            if (toSave.isStockMovementListLoaded() && toSave.getStockMovementList() != null) {
+                movements = toSave.isStockMovementListChanged()
+                        ? toSave.getStockMovementList()
+                        : toSave.getStockMovementList().stream().filter(m -> m.getId() <= 0).toList();
             }
+            if (!movements.isEmpty()) {
+                lockIngredients(conn, List.of(savedIngredient.getId()));
+                saveStockMovements(conn, savedIngredient.getId(), movements);
+            }
+
+            conn.commit();
 
+            StockLedger ledger = stockLedger;
+            if (ledger != null && !movements.isEmpty()) {
+                ledger.reload(List.of(savedIngredient.getId()));
+            }
             return savedIngredient;
 
         } catch (SQLException e) {
+            rollback(conn);
             throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            rollback(conn);
+            throw e;
         } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException ignored) {
+            }
             dbConnection.close(conn);
         }
     }
@@ -529,59 +1064,160 @@ public class DataRetriever {
 
         Connection conn = dbConnection.getDBConnection();
         int dishId;
+        ChildRowDiff ingredientDiff;
 
         try {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement ps = conn.prepareStatement(upsertDishSql)) {
+                    Integer idParam =
+                            dishToSave.getId() > 0
+                                    ? dishToSave.getId()
+                                    : idAllocator.nextId(conn, "dish");
+                    ps.setObject(1, idParam, INTEGER);
+                    ps.setString(2, dishToSave.getName());
+                    ps.setString(3, dishToSave.getDishType().name());
+                    ps.setObject(4, dishToSave.getPrice());
+
+                    ResultSet rs = ps.executeQuery();
+                    if (rs.next()) {
+                        dishId = rs.getInt("id");
+                    } else {
+                        throw new RuntimeException("Dish not found (id=" + dishToSave.getId() + ")");
+                    }
+                }
 
-            try (PreparedStatement ps = conn.prepareStatement(upsertDishSql)) {
-                Integer idParam =
-                        dishToSave.getId() > 0
-                                ? dishToSave.getId()
-                                : getNextId(conn, "dish", "Unable to generate new id for dish");
-                ps.setObject(1, idParam, INTEGER);
-                ps.setString(2, dishToSave.getName());
-                ps.setString(3, dishToSave.getDishType().name());
-                ps.setObject(4, dishToSave.getPrice());
-
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
-                    dishId = rs.getInt("id");
-                } else {
-                    throw new RuntimeException("Dish not found (id=" + dishToSave.getId() + ")");
+                List<ChildRowDiff.Row> incomingRows = new ArrayList<>();
+                for (DishIngredient di : dishToSave.getDishIngredients()) {
+                    int ingredientId = findOrCreateIngredient(conn, di.getIngredient());
+                    incomingRows.add(new ChildRowDiff.Row(
+                            0, ingredientId, toHundredths(di.getQuantity()), di.getUnit().name()));
                 }
+                // Un nouveau plat n'a encore aucune ligne : inutile de les relire
+                List<ChildRowDiff.Row> storedRows =
+                        dishToSave.getId() > 0 ? findDishIngredientRows(conn, dishId) : List.of();
+                ingredientDiff = ChildRowDiff.compute(storedRows, incomingRows);
+                writeChildRows(
+                        conn,
+                        ingredientDiff,
+                        dishId,
+                        "INSERT INTO dish_ingredient(id_dish, id_ingredient, quantity_required, unit)"
+                                + " VALUES (?, ?, ?, ?::unit_type)",
+                        "UPDATE dish_ingredient SET id_ingredient = ?, quantity_required = ?,"
+                                + " unit = ?::unit_type WHERE id = ?",
+                        "DELETE FROM dish_ingredient WHERE id = ANY(?)");
+
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                rollback(conn);
+                throw e;
+            }
+
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException ignored) {
             }
+            dbConnection.close(conn);
+        }
+
+        dishIngredientSync.add(ingredientDiff);
+        return findDishById(dishId);
+    }
 
-            try (PreparedStatement ps =
-                         conn.prepareStatement("DELETE FROM dish_ingredient WHERE id_dish = ?")) {
-                ps.setInt(1, dishId);
+    /** Child rows inserted, updated and deleted by saveDish (dish_ingredient) and saveOrder (dish_order). */
+    public Map<String, RowSyncStats> getRowSyncStats() {
+        Map<String, RowSyncStats> stats = new LinkedHashMap<>();
+        stats.put("dish_ingredient", dishIngredientSync.snapshot());
+        stats.put("dish_order", dishOrderSync.snapshot());
+        return stats;
+    }
+
+    private List<ChildRowDiff.Row> findDishIngredientRows(Connection conn, int dishId) throws SQLException {
+        List<ChildRowDiff.Row> rows = new ArrayList<>();
+        String sql = "SELECT id, id_ingredient, quantity_required, unit FROM dish_ingredient WHERE id_dish = ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, dishId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new ChildRowDiff.Row(
+                            rs.getInt("id"),
+                            rs.getInt("id_ingredient"),
+                            toHundredths(rs.getDouble("quantity_required")),
+                            rs.getString("unit")));
+                }
+            }
+        }
+        return rows;
+    }
+
+    private List<ChildRowDiff.Row> findDishOrderRows(Connection conn, int orderId) throws SQLException {
+        List<ChildRowDiff.Row> rows = new ArrayList<>();
+        try (PreparedStatement ps =
+                     conn.prepareStatement("SELECT id, id_dish, quantity FROM dish_order WHERE id_order = ?")) {
+            ps.setInt(1, orderId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new ChildRowDiff.Row(
+                            rs.getInt("id"), rs.getInt("id_dish"), toHundredths(rs.getDouble("quantity")), null));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Applies a diff: one DELETE for the removed rows, then batched UPDATEs and INSERTs. Parameters
+     * are bound in column order: (parent, key, amount[, detail]) for inserts and
+     * (key, amount[, detail], id) for updates.
+     */
+    private void writeChildRows(
+            Connection conn, ChildRowDiff diff, int parentId, String insertSql, String updateSql, String deleteSql)
+            throws SQLException {
+        if (!diff.deletes().isEmpty()) {
+            try (PreparedStatement ps = conn.prepareStatement(deleteSql)) {
+                ps.setArray(1, conn.createArrayOf("integer", diff.deletes().toArray()));
                 ps.executeUpdate();
             }
+        }
 
-            String insertDishIngredientSql =
-                    "INSERT INTO dish_ingredient(id_dish, id_ingredient, quantity_required, unit) VALUES (?,"
-                            + " ?, ?, ?::unit_type)";
-            try (PreparedStatement ps = conn.prepareStatement(insertDishIngredientSql)) {
-                for (DishIngredient di : dishToSave.getDishIngredients()) {
-                    Ingredient ing = di.getIngredient();
-                    int ingredientId = findOrCreateIngredient(conn, ing);
-                    double quantity = di.getQuantity();
-                    Unit unit = di.getUnit();
-
-                    ps.setInt(1, dishId);
-                    ps.setInt(2, ingredientId);
-                    ps.setDouble(3, quantity);
-                    ps.setString(4, unit.name());
+        if (!diff.updates().isEmpty()) {
+            try (PreparedStatement ps = conn.prepareStatement(updateSql)) {
+                for (ChildRowDiff.Row row : diff.updates()) {
+                    int index = bindChildRow(ps, 1, row);
+                    ps.setInt(index, row.id());
                     ps.addBatch();
                 }
                 ps.executeBatch();
             }
+        }
 
-            return findDishById(dishId);
+        if (!diff.inserts().isEmpty()) {
+            try (PreparedStatement ps = conn.prepareStatement(insertSql)) {
+                for (ChildRowDiff.Row row : diff.inserts()) {
+                    ps.setInt(1, parentId);
+                    bindChildRow(ps, 2, row);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+    }
 
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            dbConnection.close(conn);
+    private static int bindChildRow(PreparedStatement ps, int index, ChildRowDiff.Row row) throws SQLException {
+        ps.setInt(index++, row.key());
+        ps.setBigDecimal(index++, BigDecimal.valueOf(row.amount(), 2));
+        if (row.detail() != null) {
+            ps.setString(index++, row.detail());
         }
+        return index;
+    }
+
+    // Les quantités sont en NUMERIC(10,2) : on compare au centième près
+    private static long toHundredths(double quantity) {
+        return Math.round(quantity * 100);
     }
 
     public List<Dish> findDishByIngredientName(String ingredientName) {
@@ -600,10 +1236,11 @@ public class DataRetriever {
             PreparedStatement ps = connection.prepareStatement(sql);
             ps.setString(1, "%" + ingredientName + "%");
             ResultSet rs = ps.executeQuery();
+            DishRowMapper dishMapper = DishRowMapper.plain();
             while (rs.next()) {
-                Dish dish = mapDish(rs, "id", "name", "dish_type", "price");
-                dishes.add(dish);
+                dishes.add(dishMapper.map(rs));
             }
+            attachBatchDishIngredientsLoader(dishes);
 
             return dishes;
         } catch (SQLException e) {
@@ -613,6 +1250,88 @@ public class DataRetriever {
         }
     }
 
+    /**
+     * Ranked ingredient search backed by the pg_trgm indexes: names starting with the term come
+     * first, then names containing it or similar to it, by trigram similarity.
+     */
+    public List<Ingredient> searchIngredients(String term, int limit) {
+        String sql = """
+            SELECT id, name, price, category
+            FROM ingredient
+            WHERE name ILIKE ? OR name % ?
+            ORDER BY name ILIKE ? DESC, similarity(name, ?) DESC, name
+            LIMIT ?
+            """;
+
+        List<Ingredient> ingredients = new ArrayList<>();
+        Connection connection = dbConnection.getDBConnection();
+
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            bindSearchParams(ps, term, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                IngredientRowMapper ingredientMapper = IngredientRowMapper.plain();
+                while (rs.next()) {
+                    ingredients.add(ingredientMapper.map(rs));
+                }
+            }
+            return ingredients;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(connection);
+        }
+    }
+
+    public List<Dish> searchDishes(String term, int limit) {
+        String sql = """
+            SELECT id, name, dish_type, price
+            FROM dish
+            WHERE name ILIKE ? OR name % ?
+            ORDER BY name ILIKE ? DESC, similarity(name, ?) DESC, name
+            LIMIT ?
+            """;
+
+        List<Dish> dishes = new ArrayList<>();
+        Connection connection = dbConnection.getDBConnection();
+
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            bindSearchParams(ps, term, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                DishRowMapper dishMapper = DishRowMapper.plain();
+                while (rs.next()) {
+                    dishes.add(dishMapper.map(rs));
+                }
+            }
+            attachBatchDishIngredientsLoader(dishes);
+            return dishes;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(connection);
+        }
+    }
+
+    private void bindSearchParams(PreparedStatement ps, String term, int limit) throws SQLException {
+        if (term == null || term.isBlank()) {
+            throw new IllegalArgumentException("term must not be null or blank");
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+
+        String trimmed = term.trim();
+        String escaped = escapeLikePattern(trimmed);
+        ps.setString(1, "%" + escaped + "%");
+        ps.setString(2, trimmed);
+        ps.setString(3, escaped + "%");
+        ps.setString(4, trimmed);
+        ps.setInt(5, limit);
+    }
+
+    private String escapeLikePattern(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
     public List<Ingredient> findIngredientsByCriteria(
             String ingredientName, CategoryEnum category, String dishName, int page, int size) {
         int offset = (page - 1) * size;
@@ -629,7 +1348,107 @@ public class DataRetriever {
             """);
 
         List<Object> params = new ArrayList<>();
+        appendIngredientCriteria(sql, params, ingredientName, category, dishName);
+
+        sql.append(" LIMIT ? OFFSET ?");
+        params.add(size);
+        params.add(offset);
+
+        Connection connection = dbConnection.getDBConnection();
+
+        try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+            bindParams(ps, params);
+
+            ResultSet rs = ps.executeQuery();
+            return mapIngredientsWithOptionalQuantity(rs);
+
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(connection);
+        }
+    }
+
+
+    public KeysetPage<Ingredient> findIngredientsPage(String cursor, int size) {
+        return findIngredientsByCriteriaPage(null, null, null, cursor, size);
+    }
+
+    public KeysetPage<Ingredient> findIngredientsByCriteriaPage(
+            String ingredientName, CategoryEnum category, String dishName, String cursor, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+
+        StringBuilder sql =
+                new StringBuilder(
+                        """
+                SELECT i.id AS ingredient_id, i.name AS ingredient_name, i.price as ingredient_price, i.category,
+                       d.id AS dish_id, d.name AS dish_name, d.dish_type, d.price as dish_price,
+                       di.quantity_required, di.id AS dish_ingredient_id
+                FROM dish_ingredient di
+                JOIN ingredient i ON i.id = di.id_ingredient
+                JOIN dish d ON di.id_dish = d.id
+                WHERE 1=1
+            """);
+
+        List<Object> params = new ArrayList<>();
+        appendIngredientCriteria(sql, params, ingredientName, category, dishName);
+
+        // di.id départage les lignes qui répètent le même couple (ingrédient, plat)
+        int[] after = KeysetPage.decodeCursor(cursor, 3);
+        if (after != null) {
+            sql.append(" AND (di.id_ingredient, di.id_dish, di.id) > (?, ?, ?)");
+            params.add(after[0]);
+            params.add(after[1]);
+            params.add(after[2]);
+        }
+
+        // Une ligne de plus pour savoir s'il existe une page suivante
+        sql.append(" ORDER BY di.id_ingredient, di.id_dish, di.id LIMIT ?");
+        params.add(size + 1);
+
+        Connection connection = dbConnection.getDBConnection();
+
+        try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+            bindParams(ps, params);
 
+            List<Ingredient> ingredients = new ArrayList<>();
+            String nextCursor = null;
+            try (ResultSet rs = ps.executeQuery()) {
+                IngredientRowMapper ingredientMapper = IngredientRowMapper.withOptionalQuantity();
+                int dishIdColumn = rs.findColumn("dish_id");
+                int rowIdColumn = rs.findColumn("dish_ingredient_id");
+                int lastIngredientId = 0;
+                int lastDishId = 0;
+                int lastRowId = 0;
+                while (rs.next()) {
+                    if (ingredients.size() == size) {
+                        nextCursor = KeysetPage.encodeCursor(lastIngredientId, lastDishId, lastRowId);
+                        break;
+                    }
+                    Ingredient ingredient = ingredientMapper.map(rs);
+                    ingredients.add(ingredient);
+                    lastIngredientId = ingredient.getId();
+                    lastDishId = rs.getInt(dishIdColumn);
+                    lastRowId = rs.getInt(rowIdColumn);
+                }
+            }
+            return new KeysetPage<>(ingredients, nextCursor);
+
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(connection);
+        }
+    }
+
+    private void appendIngredientCriteria(
+            StringBuilder sql,
+            List<Object> params,
+            String ingredientName,
+            CategoryEnum category,
+            String dishName) {
         if (ingredientName != null) {
             sql.append(" AND i.name ILIKE ?");
             params.add("%" + ingredientName + "%");
@@ -644,26 +1463,244 @@ public class DataRetriever {
             sql.append(" AND d.name ILIKE ?");
             params.add("%" + dishName + "%");
         }
+    }
 
-        sql.append(" LIMIT ? OFFSET ?");
-        params.add(size);
-        params.add(offset);
+    private void bindParams(PreparedStatement ps, List<Object> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            Object param = params.get(i);
+            if (param instanceof String) {
+                ps.setString(i + 1, (String) param);
+            } else if (param instanceof Integer) {
+                ps.setInt(i + 1, (Integer) param);
+            } else {
+                throw new IllegalArgumentException(
+                        "Unsupported parameter type at index " + (i + 1) + ": "
+                                + (param == null ? "null" : param.getClass().getName()));
+            }
+        }
+    }
+
+    /**
+     * Streams every ingredient without materializing the result. The stream holds a connection
+     * until it is closed, so use it in a try-with-resources block.
+     */
+    public Stream<Ingredient> streamIngredients(int fetchSize) {
+        String sql = "SELECT id, name, price, category FROM ingredient ORDER BY id";
+        return streamQuery(
+                sql,
+                ps -> {},
+                fetchSize,
+                rs -> rowSpliterator(rs, IngredientRowMapper.plain()));
+    }
+
+    public Stream<Ingredient> streamIngredients() {
+        return streamIngredients(DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Streams the orders created in {@code [from, to)} with their table and lines. Like {@link
+     * #streamIngredients(int)}, the stream must be closed.
+     */
+    public Stream<Order> streamOrders(Instant from, Instant to, int fetchSize) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("from and to must not be null");
+        }
+
+        String sql = """
+            SELECT o.id, o.reference, o.creation_datetime,
+                   o.arrival_datetime, o.departure_datetime,
+                   rt.id         AS table_id,
+                   rt.number     AS table_number,
+                   dor.id        AS dish_order_id,
+                   dor.quantity  AS quantity,
+                   d.id          AS dish_id,
+                   d.name        AS dish_name,
+                   d.dish_type   AS dish_type,
+                   d.price       AS dish_price
+            FROM "order" o
+            JOIN restaurant_table rt ON rt.id = o.id_table
+            LEFT JOIN dish_order dor ON dor.id_order = o.id
+            LEFT JOIN dish d ON d.id = dor.id_dish
+            WHERE o.creation_datetime >= ?
+            AND o.creation_datetime < ?
+            ORDER BY o.id, dor.id
+            """;
+
+        return streamQuery(
+                sql,
+                ps -> {
+                    ps.setTimestamp(1, Timestamp.from(from));
+                    ps.setTimestamp(2, Timestamp.from(to));
+                },
+                fetchSize,
+                OrderSpliterator::new);
+    }
+
+    public Stream<Order> streamOrders(Instant from, Instant to) {
+        return streamOrders(from, to, DEFAULT_FETCH_SIZE);
+    }
+
+    public StockValue getStockValueAt(int ingredientId, Instant instant) {
+        return getStockValuesAt(List.of(ingredientId), instant).get(ingredientId);
+    }
+
+    public Map<Integer, StockValue> getStockValuesAt(Collection<Integer> ingredientIds, Instant instant) {
+        if (ingredientIds == null) {
+            throw new IllegalArgumentException("ingredientIds must not be null");
+        }
+        if (instant == null) {
+            throw new IllegalArgumentException("instant must not be null");
+        }
 
         Connection connection = dbConnection.getDBConnection();
+        try {
+            return loadStockValues(connection, ingredientIds, instant);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(connection);
+        }
+    }
 
-        try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
-            for (int i = 0; i < params.size(); i++) {
-                Object param = params.get(i);
-                if (param instanceof String) {
-                    ps.setString(i + 1, (String) param);
-                } else if (param instanceof Integer) {
-                    ps.setInt(i + 1, (Integer) param);
+    /**
+     * Current balance of these ingredients, counting every movement including those dated in the
+     * future (orders consume at their arrival time). The balance the stock check and the ledger use.
+     */
+    Map<Integer, StockValue> getCurrentStockValues(Collection<Integer> ingredientIds) {
+        Connection connection = dbConnection.getDBConnection();
+        try {
+            return loadCurrentStockValues(connection, ingredientIds);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(connection);
+        }
+    }
+
+    /**
+     * Replaces every snapshot by one taken now. Holds the lock of every ingredient until it
+     * commits, so stock writes wait for the rebuild.
+     */
+    public int rebuildStockSnapshots() {
+        String deleteSql = "DELETE FROM stock_snapshot";
+        String insertSql = """
+            INSERT INTO stock_snapshot(id_ingredient, as_of_datetime, quantity, unit)
+            SELECT sm.id_ingredient,
+                   ?,
+                   SUM(CASE sm.type WHEN 'IN' THEN sm.quantity ELSE -sm.quantity END),
+                   (ARRAY_AGG(sm.unit ORDER BY sm.creation_datetime, sm.id))[1]
+            FROM stock_movement sm
+            WHERE sm.creation_datetime <= ?
+            GROUP BY sm.id_ingredient
+            """;
+
+        Connection conn = dbConnection.getDBConnection();
+        try {
+            conn.setAutoCommit(false);
+            lockIngredients(conn, findAllIngredientIds(conn));
+            // Horloge de l'application, comme pour les mouvements et refreshStockSnapshots
+            Timestamp asOf = Timestamp.from(Instant.now());
+
+            try (PreparedStatement ps = conn.prepareStatement(deleteSql)) {
+                ps.executeUpdate();
+            }
+
+            int snapshots;
+            try (PreparedStatement ps = conn.prepareStatement(insertSql)) {
+                ps.setTimestamp(1, asOf);
+                ps.setTimestamp(2, asOf);
+                snapshots = ps.executeUpdate();
+            }
+
+            conn.commit();
+            return snapshots;
+        } catch (SQLException e) {
+            rollback(conn);
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException ignored) {
+            }
+            dbConnection.close(conn);
+        }
+    }
+
+    /** Deletes the snapshots older than the latest one before {@code before}, under every ingredient lock. */
+    public int compactStockSnapshots(Instant before) {
+        if (before == null) {
+            throw new IllegalArgumentException("before must not be null");
+        }
+
+        // Garder le snapshot le plus récent avant la date limite pour chaque ingrédient
+        String sql = """
+            DELETE FROM stock_snapshot ss
+            WHERE ss.as_of_datetime < (
+                SELECT MAX(latest.as_of_datetime)
+                FROM stock_snapshot latest
+                WHERE latest.id_ingredient = ss.id_ingredient
+                AND latest.as_of_datetime < ?
+            )
+            """;
+
+        Connection conn = dbConnection.getDBConnection();
+        try {
+            conn.setAutoCommit(false);
+            lockIngredients(conn, findAllIngredientIds(conn));
+
+            int deleted;
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setTimestamp(1, Timestamp.from(before));
+                deleted = ps.executeUpdate();
+            }
+
+            conn.commit();
+            return deleted;
+        } catch (SQLException e) {
+            rollback(conn);
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException ignored) {
+            }
+            dbConnection.close(conn);
+        }
+    }
+
+    private List<Integer> findAllIngredientIds(Connection conn) throws SQLException {
+        List<Integer> ingredientIds = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT id FROM ingredient");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                ingredientIds.add(rs.getInt("id"));
+            }
+        }
+        return ingredientIds;
+    }
+
+    public List<StockDiscrepancy> verifyStockSnapshots(Instant instant) {
+        if (instant == null) {
+            throw new IllegalArgumentException("instant must not be null");
+        }
+
+        Connection connection = dbConnection.getDBConnection();
+        try {
+            List<Integer> ingredientIds = findAllIngredientIds(connection);
+
+            Map<Integer, StockValue> fromHistory =
+                    loadStockValuesFromHistory(connection, ingredientIds, instant);
+            Map<Integer, StockValue> fromSnapshots = loadStockValues(connection, ingredientIds, instant);
+
+            List<StockDiscrepancy> discrepancies = new ArrayList<>();
+            for (Integer ingredientId : ingredientIds) {
+                double expected = fromHistory.get(ingredientId).getQuantity();
+                double actual = fromSnapshots.get(ingredientId).getQuantity();
+                if (Math.abs(expected - actual) > STOCK_TOLERANCE) {
+                    discrepancies.add(new StockDiscrepancy(ingredientId, expected, actual));
                 }
             }
-
-            ResultSet rs = ps.executeQuery();
-            return mapIngredientsWithOptionalQuantity(rs);
-
+            return discrepancies;
         } catch (SQLException e) {
             throw new RuntimeException(e);
         } finally {
@@ -671,7 +1708,6 @@ public class DataRetriever {
         }
     }
 
-
     private List<DishOrder> validateOrder(Order orderToSave) {
         if (orderToSave == null) {
             throw new IllegalArgumentException("orderToSave must not be null");
@@ -703,25 +1739,32 @@ public class DataRetriever {
         return dishQuantities;
     }
 
-    private Map<Integer, Double> computeRequiredQuantities(
+    private Map<Integer, RequiredIngredient> computeRequiredQuantities(
             Connection conn, Map<Integer, Integer> dishQuantities) throws SQLException {
-        Map<Integer, Double> requiredQuantities = new HashMap<>();
-        String sql = "SELECT id_ingredient, quantity_required FROM dish_ingredient WHERE id_dish = ?";
+        Map<Integer, RequiredIngredient> requiredQuantities = new HashMap<>();
+        String sql = """
+            SELECT di.id_dish, di.id_ingredient, di.quantity_required, di.unit, i.name AS ingredient_name
+            FROM dish_ingredient di
+            JOIN ingredient i ON i.id = di.id_ingredient
+            WHERE di.id_dish = ANY(?)
+            """;
 
         try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            for (Map.Entry<Integer, Integer> entry : dishQuantities.entrySet()) {
-                int dishId = entry.getKey();
-                int totalDishQuantity = entry.getValue();
-
-                ps.setInt(1, dishId);
-                try (ResultSet rs = ps.executeQuery()) {
-                    while (rs.next()) {
-                        int ingredientId = rs.getInt("id_ingredient");
-                        double quantityPerDish = rs.getDouble("quantity_required");
-                        double totalRequiredForDish = quantityPerDish * totalDishQuantity;
+            ps.setArray(1, conn.createArrayOf("integer", dishQuantities.keySet().toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int ingredientId = rs.getInt("id_ingredient");
+                    double quantityPerDish = rs.getDouble("quantity_required");
+                    double totalRequiredForDish = quantityPerDish * dishQuantities.get(rs.getInt("id_dish"));
 
-                        requiredQuantities.merge(ingredientId, totalRequiredForDish, Double::sum);
-                    }
+                    requiredQuantities.merge(
+                            ingredientId,
+                            new RequiredIngredient(
+                                    ingredientId,
+                                    rs.getString("ingredient_name"),
+                                    totalRequiredForDish,
+                                    EnumLookup.UNIT.parse(rs.getString("unit"))),
+                            RequiredIngredient::plus);
                 }
             }
         }
@@ -729,73 +1772,409 @@ public class DataRetriever {
         return requiredQuantities;
     }
 
-    private void checkStockOrThrow(
-            Connection conn, Map<Integer, Double> requiredQuantities, Instant checkInstant)
+    /**
+     * Compares the requirements with the current balance, every movement included: an order dated
+     * in the past must not consume stock that later movements already took.
+     */
+    private void checkStockOrThrow(Connection conn, Map<Integer, RequiredIngredient> requiredQuantities)
             throws SQLException {
-        for (Map.Entry<Integer, Double> entry : requiredQuantities.entrySet()) {
-            int ingredientId = entry.getKey();
-            double requiredQuantity = entry.getValue();
+        if (requiredQuantities.isEmpty()) {
+            return;
+        }
 
-            Ingredient ingredient = loadIngredientWithMovements(conn, ingredientId);
-            double availableQuantity = ingredient.getStockValueAt(checkInstant).getQuantity();
+        Map<Integer, StockValue> availableQuantities =
+                loadCurrentStockValues(conn, requiredQuantities.keySet());
 
-            if (availableQuantity < requiredQuantity) {
-                throw new RuntimeException("Not enough stock for ingredient: " + ingredient.getName());
+        for (RequiredIngredient required : requiredQuantities.values()) {
+            double availableQuantity = availableQuantities.get(required.ingredientId()).getQuantity();
+            if (availableQuantity < required.quantity()) {
+                throw new RuntimeException("Not enough stock for ingredient: " + required.name());
             }
         }
     }
 
-    private String generateOrderReference(Connection conn) throws SQLException {
-        String sql = "SELECT nextval('order_reference_seq') AS seq";
-        try (PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-            if (!rs.next()) {
-                throw new RuntimeException("Unable to generate order reference from sequence");
+    /**
+     * Takes the transaction-scoped advisory lock of each ingredient. Every writer locks in
+     * ascending id order, so two transactions can never wait on each other in a cycle; orders
+     * sharing no ingredient never wait at all.
+     *
+     * <p>Every transaction that writes stock movements or snapshots holds these locks, so a
+     * snapshot can never be computed while a movement it should include is still uncommitted.
+     */
+    static void lockIngredients(Connection conn, Collection<Integer> ingredientIds)
+            throws SQLException {
+        if (ingredientIds.isEmpty()) {
+            return;
+        }
+        Integer[] sortedIds = ingredientIds.stream().sorted().toArray(Integer[]::new);
+
+        // unnest renvoie les éléments dans l'ordre du tableau : les verrous suivent cet ordre
+        String sql = "SELECT pg_advisory_xact_lock(?, id) FROM unnest(?::int[]) AS id";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, STOCK_LOCK_NAMESPACE);
+            ps.setArray(2, conn.createArrayOf("integer", sortedIds));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    // Consommer toutes les lignes garantit que tous les verrous sont posés
+                }
             }
-            long seq = rs.getLong("seq");
-            return String.format("ORD%05d", seq);
         }
     }
 
-    private Ingredient loadIngredientWithMovements(Connection conn, int ingredientId)
+    /**
+     * Removes the OUT movements of an order being rewritten, before its stock is checked again.
+     *
+     * @return the released quantity per ingredient
+     */
+    private Map<Integer, Double> releaseOrderConsumption(Connection conn, int orderId)
             throws SQLException {
-        Ingredient ingredient;
+        String sql = """
+            DELETE FROM stock_movement
+            WHERE id_order = ?
+            RETURNING id_ingredient, quantity, creation_datetime
+            """;
 
-        try (PreparedStatement ps =
-                     conn.prepareStatement("SELECT id, name, price, category FROM ingredient WHERE id = ?")) {
-            ps.setInt(1, ingredientId);
+        Map<Integer, Double> released = new HashMap<>();
+        Map<Integer, Instant> oldestByIngredient = new HashMap<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, orderId);
             try (ResultSet rs = ps.executeQuery()) {
-                if (!rs.next()) {
-                    throw new RuntimeException("Ingredient not found (id=" + ingredientId + ")");
+                while (rs.next()) {
+                    int ingredientId = rs.getInt("id_ingredient");
+                    released.merge(ingredientId, rs.getDouble("quantity"), Double::sum);
+                    oldestByIngredient.merge(
+                            ingredientId,
+                            rs.getTimestamp("creation_datetime").toInstant(),
+                            (a, b) -> a.isBefore(b) ? a : b);
                 }
-                ingredient = mapIngredient(rs, "id", "name", "price", "category");
             }
         }
 
-        List<StockMouvement> movements = new ArrayList<>();
+        refreshStockSnapshots(conn, oldestByIngredient);
+        return released;
+    }
 
-        try (PreparedStatement ps =
-                     conn.prepareStatement(
-                             "SELECT id, quantity, type, unit, creation_datetime FROM stock_movement WHERE"
-                                     + " id_ingredient = ?")) {
-            ps.setInt(1, ingredientId);
+    private Map<Integer, Double> reserveInLedger(
+            StockLedger ledger, Map<Integer, RequiredIngredient> requiredQuantities) {
+        Map<Integer, Double> quantities = new HashMap<>();
+        for (RequiredIngredient required : requiredQuantities.values()) {
+            quantities.put(required.ingredientId(), required.quantity());
+        }
+
+        OptionalInt shortage = ledger.tryReserve(quantities);
+        if (shortage.isPresent()) {
+            throw new RuntimeException(
+                    "Not enough stock for ingredient: " + requiredQuantities.get(shortage.getAsInt()).name());
+        }
+        return quantities;
+    }
+
+    private void undoLedgerChanges(
+            StockLedger ledger, Map<Integer, Double> reserved, Map<Integer, Double> released) {
+        if (ledger != null) {
+            ledger.credit(reserved);
+            ledger.debit(released);
+        }
+    }
+
+    /**
+     * Written in the order's transaction so a crash before the ledger flush can be recovered: the
+     * quantities reserved are stored as is and replayed by {@link StockLedger#start()}.
+     */
+    private void markConsumptionPending(
+            Connection conn, int orderId, Map<Integer, RequiredIngredient> requiredQuantities, Instant at)
+            throws SQLException {
+        List<StockLedger.Consumption> consumption = toConsumption(requiredQuantities);
+        if (consumption.isEmpty()) {
+            return;
+        }
+
+        Integer[] ingredientIds = new Integer[consumption.size()];
+        Double[] quantities = new Double[consumption.size()];
+        String[] units = new String[consumption.size()];
+        for (int i = 0; i < consumption.size(); i++) {
+            ingredientIds[i] = consumption.get(i).ingredientId();
+            quantities[i] = consumption.get(i).quantity();
+            units[i] = consumption.get(i).unit().name();
+        }
+
+        String sql = """
+            INSERT INTO stock_ledger_pending(id_order, id_ingredient, quantity, unit, consumed_at)
+            SELECT ?::int, u.id_ingredient, u.quantity, u.unit::unit_type, ?::timestamp
+            FROM unnest(?::int[], ?::numeric[], ?::varchar[]) AS u(id_ingredient, quantity, unit)
+            """;
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, orderId);
+            ps.setTimestamp(2, Timestamp.from(at));
+            ps.setArray(3, conn.createArrayOf("integer", ingredientIds));
+            ps.setArray(4, conn.createArrayOf("numeric", quantities));
+            ps.setArray(5, conn.createArrayOf("varchar", units));
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Removes what is still pending for an order being rewritten. The ledger has just been flushed,
+     * so these rows belong to an order whose queueing failed after commit: its reservation was
+     * never written to stock_movement and is released here.
+     */
+    private Map<Integer, Double> releasePendingConsumption(Connection conn, int orderId) throws SQLException {
+        Map<Integer, Double> released = new HashMap<>();
+        String sql = "DELETE FROM stock_ledger_pending WHERE id_order = ? RETURNING id_ingredient, quantity";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, orderId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    released.merge(rs.getInt("id_ingredient"), rs.getDouble("quantity"), Double::sum);
+                }
+            }
+        }
+        return released;
+    }
+
+    private List<StockLedger.Consumption> toConsumption(Map<Integer, RequiredIngredient> requiredQuantities) {
+        List<StockLedger.Consumption> consumption = new ArrayList<>();
+        for (RequiredIngredient required : requiredQuantities.values()) {
+            if (required.quantity() > 0) {
+                consumption.add(
+                        new StockLedger.Consumption(required.ingredientId(), required.quantity(), required.unit()));
+            }
+        }
+        return consumption;
+    }
+
+    private void recordOrderConsumption(
+            Connection conn, int orderId, Map<Integer, RequiredIngredient> requiredQuantities, Instant at)
+            throws SQLException {
+        List<RequiredIngredient> consumed = new ArrayList<>();
+        for (RequiredIngredient required : requiredQuantities.values()) {
+            if (required.quantity() > 0) {
+                consumed.add(required);
+            }
+        }
+        if (consumed.isEmpty()) {
+            return;
+        }
+
+        Integer[] ingredientIds = new Integer[consumed.size()];
+        Double[] quantities = new Double[consumed.size()];
+        String[] units = new String[consumed.size()];
+        for (int i = 0; i < consumed.size(); i++) {
+            ingredientIds[i] = consumed.get(i).ingredientId();
+            quantities[i] = consumed.get(i).quantity();
+            units[i] = consumed.get(i).unit().name();
+        }
+
+        String sql = """
+            INSERT INTO stock_movement(id_ingredient, quantity, type, unit, creation_datetime, id_order)
+            SELECT u.id_ingredient, u.quantity, 'OUT'::movement_type, u.unit::unit_type, ?::timestamp, ?::int
+            FROM unnest(?::int[], ?::numeric[], ?::varchar[]) AS u(id_ingredient, quantity, unit)
+            """;
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setTimestamp(1, Timestamp.from(at));
+            ps.setInt(2, orderId);
+            ps.setArray(3, conn.createArrayOf("integer", ingredientIds));
+            ps.setArray(4, conn.createArrayOf("numeric", quantities));
+            ps.setArray(5, conn.createArrayOf("varchar", units));
+            ps.executeUpdate();
+        }
+
+        Map<Integer, Instant> oldestByIngredient = new HashMap<>();
+        for (Integer ingredientId : ingredientIds) {
+            oldestByIngredient.put(ingredientId, at);
+        }
+        refreshStockSnapshots(conn, oldestByIngredient);
+    }
+
+    private Map<Integer, StockValue> loadStockValues(
+            Connection conn, Collection<Integer> ingredientIds, Instant instant) throws SQLException {
+        // Dernier snapshot avant l'instant, puis uniquement les mouvements postérieurs
+        String sql = """
+            SELECT i.id AS id_ingredient,
+                   COALESCE(s.quantity, 0) + COALESCE(m.delta, 0) AS stock,
+                   COALESCE(s.unit, m.unit) AS unit
+            FROM unnest(?::int[]) AS i(id)
+            LEFT JOIN LATERAL (
+                SELECT ss.as_of_datetime, ss.quantity, ss.unit
+                FROM stock_snapshot ss
+                WHERE ss.id_ingredient = i.id
+                AND ss.as_of_datetime <= ?
+                ORDER BY ss.as_of_datetime DESC
+                LIMIT 1
+            ) s ON TRUE
+            LEFT JOIN LATERAL (
+                SELECT SUM(CASE sm.type WHEN 'IN' THEN sm.quantity ELSE -sm.quantity END) AS delta,
+                       (ARRAY_AGG(sm.unit ORDER BY sm.creation_datetime, sm.id))[1] AS unit
+                FROM stock_movement sm
+                WHERE sm.id_ingredient = i.id
+                AND sm.creation_datetime <= ?
+                AND (s.as_of_datetime IS NULL OR sm.creation_datetime > s.as_of_datetime)
+            ) m ON TRUE
+            """;
+
+        return queryStockValues(conn, sql, ingredientIds, instant, 2);
+    }
+
+    private Map<Integer, StockValue> loadCurrentStockValues(
+            Connection conn, Collection<Integer> ingredientIds) throws SQLException {
+        // Même calcul que loadStockValues, sans borne de date (mouvements datés dans le futur compris)
+        String sql = """
+            SELECT i.id AS id_ingredient,
+                   COALESCE(s.quantity, 0) + COALESCE(m.delta, 0) AS stock,
+                   COALESCE(s.unit, m.unit) AS unit
+            FROM unnest(?::int[]) AS i(id)
+            LEFT JOIN LATERAL (
+                SELECT ss.as_of_datetime, ss.quantity, ss.unit
+                FROM stock_snapshot ss
+                WHERE ss.id_ingredient = i.id
+                ORDER BY ss.as_of_datetime DESC
+                LIMIT 1
+            ) s ON TRUE
+            LEFT JOIN LATERAL (
+                SELECT SUM(CASE sm.type WHEN 'IN' THEN sm.quantity ELSE -sm.quantity END) AS delta,
+                       (ARRAY_AGG(sm.unit ORDER BY sm.creation_datetime, sm.id))[1] AS unit
+                FROM stock_movement sm
+                WHERE sm.id_ingredient = i.id
+                AND (s.as_of_datetime IS NULL OR sm.creation_datetime > s.as_of_datetime)
+            ) m ON TRUE
+            """;
+
+        return queryStockValues(conn, sql, ingredientIds, null, 0);
+    }
+
+    private Map<Integer, StockValue> loadStockValuesFromHistory(
+            Connection conn, Collection<Integer> ingredientIds, Instant instant) throws SQLException {
+        String sql = """
+            SELECT sm.id_ingredient,
+                   SUM(CASE sm.type WHEN 'IN' THEN sm.quantity ELSE -sm.quantity END) AS stock,
+                   (ARRAY_AGG(sm.unit ORDER BY sm.creation_datetime, sm.id))[1] AS unit
+            FROM stock_movement sm
+            WHERE sm.id_ingredient = ANY(?)
+            AND sm.creation_datetime <= ?
+            GROUP BY sm.id_ingredient
+            """;
+
+        return queryStockValues(conn, sql, ingredientIds, instant, 1);
+    }
+
+    private Map<Integer, StockValue> queryStockValues(
+            Connection conn, String sql, Collection<Integer> ingredientIds, Instant instant, int instantParams)
+            throws SQLException {
+        Map<Integer, StockValue> stockValues = new HashMap<>();
+        for (Integer ingredientId : ingredientIds) {
+            stockValues.put(ingredientId, new StockValue(0.0, Unit.KG));
+        }
+        if (stockValues.isEmpty()) {
+            return stockValues;
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setArray(1, conn.createArrayOf("integer", stockValues.keySet().toArray()));
+            for (int i = 0; i < instantParams; i++) {
+                ps.setTimestamp(2 + i, Timestamp.from(instant));
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                int idColumn = rs.findColumn("id_ingredient");
+                int stockColumn = rs.findColumn("stock");
+                int unitColumn = rs.findColumn("unit");
+                while (rs.next()) {
+                    String unit = rs.getString(unitColumn);
+                    stockValues.put(
+                            rs.getInt(idColumn),
+                            new StockValue(
+                                    rs.getDouble(stockColumn),
+                                    unit == null ? Unit.KG : EnumLookup.UNIT.parse(unit)));
+                }
+            }
+        }
+        return stockValues;
+    }
+
+    /**
+     * Drops the snapshots made wrong by movements written at or after the given instants, then
+     * snapshots the ingredients that have {@code stockSnapshotInterval} movements since their
+     * latest one. Two round trips for the whole set, plus two when snapshots are due.
+     *
+     * <p>The caller holds the locks of these ingredients. Snapshots are dated with the application
+     * clock, like the movements they are compared with.
+     */
+    private void refreshStockSnapshots(Connection conn, Map<Integer, Instant> oldestByIngredient)
+            throws SQLException {
+        if (oldestByIngredient.isEmpty()) {
+            return;
+        }
+        Integer[] ingredientIds = oldestByIngredient.keySet().toArray(Integer[]::new);
+        Timestamp[] oldestMovements = new Timestamp[ingredientIds.length];
+        for (int i = 0; i < ingredientIds.length; i++) {
+            oldestMovements[i] = Timestamp.from(oldestByIngredient.get(ingredientIds[i]));
+        }
+
+        // Un mouvement antérieur à un snapshot rend ce snapshot faux
+        String deleteSql = """
+            DELETE FROM stock_snapshot ss
+            USING unnest(?::int[], ?::timestamp[]) AS m(id_ingredient, oldest)
+            WHERE ss.id_ingredient = m.id_ingredient
+            AND ss.as_of_datetime >= m.oldest
+            """;
+        try (PreparedStatement ps = conn.prepareStatement(deleteSql)) {
+            ps.setArray(1, conn.createArrayOf("integer", ingredientIds));
+            ps.setArray(2, conn.createArrayOf("timestamp", oldestMovements));
+            ps.executeUpdate();
+        }
+
+        String dueSql = """
+            SELECT i.id AS id_ingredient
+            FROM unnest(?::int[]) AS i(id)
+            CROSS JOIN LATERAL (
+                SELECT MAX(ss.as_of_datetime) AS as_of_datetime
+                FROM stock_snapshot ss
+                WHERE ss.id_ingredient = i.id
+            ) s
+            CROSS JOIN LATERAL (
+                SELECT COUNT(*) AS pending
+                FROM stock_movement sm
+                WHERE sm.id_ingredient = i.id
+                AND sm.creation_datetime <= ?
+                AND sm.creation_datetime > COALESCE(s.as_of_datetime, '-infinity'::timestamp)
+            ) m
+            WHERE m.pending >= ?
+            """;
+
+        Instant now = Instant.now();
+        List<Integer> due = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(dueSql)) {
+            ps.setArray(1, conn.createArrayOf("integer", ingredientIds));
+            ps.setTimestamp(2, Timestamp.from(now));
+            ps.setInt(3, stockSnapshotInterval);
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    StockValue value =
-                            new StockValue(rs.getDouble("quantity"), Unit.valueOf(rs.getString("unit")));
-                    StockMouvement movement =
-                            new StockMouvement(
-                                    rs.getInt("id"),
-                                    value,
-                                    MovementTypeEnum.valueOf(rs.getString("type")),
-                                    rs.getTimestamp("creation_datetime").toInstant());
-                    movements.add(movement);
+                    due.add(rs.getInt("id_ingredient"));
                 }
             }
         }
 
-        ingredient.setStockMovementList(movements);
-        return ingredient;
+        if (due.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, StockValue> balances = loadStockValues(conn, due, now);
+        String insertSql = """
+            INSERT INTO stock_snapshot(id_ingredient, as_of_datetime, quantity, unit)
+            VALUES (?, ?, ?, ?::unit_type)
+            ON CONFLICT (id_ingredient, as_of_datetime) DO UPDATE
+            SET quantity = EXCLUDED.quantity, unit = EXCLUDED.unit
+            """;
+        try (PreparedStatement ps = conn.prepareStatement(insertSql)) {
+            for (Integer ingredientId : due) {
+                StockValue balance = balances.get(ingredientId);
+                ps.setInt(1, ingredientId);
+                ps.setTimestamp(2, Timestamp.from(now));
+                ps.setDouble(3, balance.getQuantity());
+                ps.setString(4, balance.getUnit().name());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
     }
 
     private List<Ingredient> findIngredientsByDishId(int dishId) {
@@ -819,6 +2198,55 @@ public class DataRetriever {
         }
     }
 
+    private List<String> findExistingIngredientNames(Connection conn, List<String> names)
+            throws SQLException {
+        List<String> existingNames = new ArrayList<>();
+        String sql = "SELECT name FROM ingredient WHERE name = ANY(?)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setArray(1, conn.createArrayOf("varchar", names.toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    existingNames.add(rs.getString("name"));
+                }
+            }
+        }
+        return existingNames;
+    }
+
+    private List<Ingredient> insertIngredients(Connection conn, List<Ingredient> batch)
+            throws SQLException {
+        String sql = """
+            INSERT INTO ingredient(name, category, price)
+            SELECT u.name, u.category::ingredient_category, u.price
+            FROM unnest(?::varchar[], ?::varchar[], ?::numeric[]) AS u(name, category, price)
+            RETURNING id, name, price, category
+            """;
+
+        Object[] names = new Object[batch.size()];
+        Object[] categories = new Object[batch.size()];
+        Object[] prices = new Object[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            Ingredient ingredient = batch.get(i);
+            names[i] = ingredient.getName();
+            categories[i] = ingredient.getCategory().name();
+            prices[i] = ingredient.getPrice();
+        }
+
+        List<Ingredient> inserted = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setArray(1, conn.createArrayOf("varchar", names));
+            ps.setArray(2, conn.createArrayOf("varchar", categories));
+            ps.setArray(3, conn.createArrayOf("numeric", prices));
+            try (ResultSet rs = ps.executeQuery()) {
+                IngredientRowMapper ingredientMapper = IngredientRowMapper.plain();
+                while (rs.next()) {
+                    inserted.add(ingredientMapper.map(rs));
+                }
+            }
+        }
+        return inserted;
+    }
+
     private Integer findIngredientIdByName(Connection conn, String name) throws SQLException {
         String sql = "SELECT id FROM ingredient WHERE name = ?";
         try (PreparedStatement ps = conn.prepareStatement(sql)) {
@@ -862,49 +2290,11 @@ public class DataRetriever {
         }
     }
 
-    private int getNextId(Connection conn, String tableRegclassLiteral, String errorMessage)
-            throws SQLException {
-        String sql = "SELECT nextval(pg_get_serial_sequence('" + tableRegclassLiteral + "', 'id'))";
-        try (PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-            if (rs.next()) {
-                return rs.getInt(1);
-            }
-        }
-        throw new RuntimeException(errorMessage);
-    }
-
-    private Dish mapDish(
-            ResultSet rs, String idColumn, String nameColumn, String typeColumn, String priceColumn)
-            throws SQLException {
-        return new Dish(
-                rs.getInt(idColumn),
-                rs.getString(nameColumn),
-                DishTypeEnum.valueOf(rs.getString(typeColumn)),
-                rs.getObject(priceColumn) != null ? rs.getDouble(priceColumn) : null);
-    }
-
-    private Ingredient mapIngredient(
-            ResultSet rs, String idColumn, String nameColumn, String priceColumn, String categoryColumn)
-            throws SQLException {
-        return new Ingredient(
-                rs.getInt(idColumn),
-                rs.getString(nameColumn),
-                rs.getDouble(priceColumn),
-                CategoryEnum.valueOf(rs.getString(categoryColumn).toUpperCase()));
-    }
-
     private List<Ingredient> mapIngredientsWithOptionalQuantity(ResultSet rs) throws SQLException {
+        IngredientRowMapper ingredientMapper = IngredientRowMapper.withOptionalQuantity();
         List<Ingredient> ingredients = new ArrayList<>();
         while (rs.next()) {
-            Ingredient ingredient =
-                    mapIngredient(rs, "ingredient_id", "ingredient_name", "ingredient_price", "category");
-
-            if (rs.getObject("quantity_required") != null) {
-                ingredient.setQuantity(rs.getDouble("quantity_required"));
-            }
-
-            ingredients.add(ingredient);
+            ingredients.add(ingredientMapper.map(rs));
         }
         return ingredients;
     }
@@ -925,7 +2315,7 @@ public class DataRetriever {
             int idParam =
                     toSave.getId() > 0
                             ? toSave.getId()
-                            : getNextId(conn, "ingredient", "Unable to generate new id for ingredient");
+                            : idAllocator.nextId(conn, "ingredient");
             ps.setInt(1, idParam);
             ps.setString(2, toSave.getName());
             ps.setString(3, toSave.getCategory().name());
@@ -938,7 +2328,7 @@ public class DataRetriever {
                             ingredientId,
                             rs.getString("name"),
                             rs.getDouble("price"),
-                            CategoryEnum.valueOf(rs.getString("category").toUpperCase()));
+                            EnumLookup.CATEGORY.parse(rs.getString("category")));
                 }
             }
         }
@@ -988,6 +2378,17 @@ public class DataRetriever {
             psWithId.executeBatch();
             psWithoutId.executeBatch();
         }
+
+        Instant oldestMovement = null;
+        for (StockMouvement movement : movements) {
+            Instant creationDateTime = movement.getCreationDateTime();
+            if (oldestMovement == null || creationDateTime.isBefore(oldestMovement)) {
+                oldestMovement = creationDateTime;
+            }
+        }
+        if (oldestMovement != null) {
+            refreshStockSnapshots(conn, Map.of(ingredientId, oldestMovement));
+        }
     }
 
     // Méthode manquante pour findIngredientById
@@ -1004,7 +2405,9 @@ public class DataRetriever {
             ResultSet rs = ps.executeQuery();
 
             if (rs.next()) {
-                return mapIngredient(rs, "id", "name", "price", "category");
+                Ingredient ingredient = IngredientRowMapper.plain().map(rs);
+                attachStockMovementLoader(ingredient);
+                return ingredient;
             }
             throw new RuntimeException("Ingredient not found (id=" + idIngredient + ")");
         } catch (SQLException e) {
@@ -1013,4 +2416,243 @@ public class DataRetriever {
             dbConnection.close(connection);
         }
     }
+
+    private <T> Stream<T> streamQuery(
+            String sql,
+            StatementBinder binder,
+            int fetchSize,
+            SpliteratorFactory<T> spliteratorFactory) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("fetchSize must be positive");
+        }
+
+        Connection conn = dbConnection.getDBConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            // pgJDBC n'utilise un curseur que hors autocommit
+            conn.setAutoCommit(false);
+            ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            binder.bind(ps);
+            rs = ps.executeQuery();
+
+            ResultSet resultSet = rs;
+            PreparedStatement statement = ps;
+            return StreamSupport.stream(spliteratorFactory.create(rs), false)
+                    .onClose(() -> closeStream(conn, statement, resultSet));
+        } catch (SQLException | RuntimeException e) {
+            closeStream(conn, ps, rs);
+            throw e instanceof RuntimeException re ? re : new RuntimeException(e);
+        }
+    }
+
+    private void closeStream(Connection conn, PreparedStatement ps, ResultSet rs) {
+        try {
+            if (rs != null) {
+                rs.close();
+            }
+            if (ps != null) {
+                ps.close();
+            }
+            conn.rollback();
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(conn);
+        }
+    }
+
+    private <T> Spliterator<T> rowSpliterator(ResultSet rs, RowMapper<T> mapper) {
+        return new Spliterators.AbstractSpliterator<>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!rs.next()) {
+                        return false;
+                    }
+                    action.accept(mapper.map(rs));
+                    return true;
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    @FunctionalInterface
+    private interface StatementBinder {
+        void bind(PreparedStatement ps) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface SpliteratorFactory<T> {
+        Spliterator<T> create(ResultSet rs) throws SQLException;
+    }
+
+    /** Groups consecutive rows of the same order (ordered by order id) into one Order. */
+    private class OrderSpliterator extends Spliterators.AbstractSpliterator<Order> {
+        private final ResultSet rs;
+        private final Map<Integer, Table> tables = new HashMap<>();
+        private final DishRowMapper dishMapper = DishRowMapper.prefixed();
+        private boolean started;
+        private boolean onRow;
+
+        OrderSpliterator(ResultSet rs) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.rs = rs;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Order> action) {
+            try {
+                if (!started) {
+                    started = true;
+                    onRow = rs.next();
+                }
+                if (!onRow) {
+                    return false;
+                }
+
+                int orderId = rs.getInt("id");
+                String reference = rs.getString("reference");
+                Instant creationDateTime = rs.getTimestamp("creation_datetime").toInstant();
+                Table table =
+                        tables.computeIfAbsent(
+                                rs.getInt("table_id"), tableId -> new Table(tableId, readTableNumber()));
+                TableOrder tableOrder =
+                        new TableOrder(
+                                table,
+                                rs.getTimestamp("arrival_datetime").toInstant(),
+                                rs.getTimestamp("departure_datetime").toInstant());
+
+                List<DishOrder> dishOrders = new ArrayList<>();
+                do {
+                    int dishOrderId = rs.getInt("dish_order_id");
+                    if (!rs.wasNull()) {
+                        Dish dish = dishMapper.map(rs);
+                        dishOrders.add(new DishOrder(dishOrderId, dish, rs.getInt("quantity")));
+                    }
+                    onRow = rs.next();
+                } while (onRow && rs.getInt("id") == orderId);
+
+                action.accept(new Order(orderId, reference, creationDateTime, dishOrders, tableOrder));
+                return true;
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private int readTableNumber() {
+            try {
+                return rs.getInt("table_number");
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private class DishIngredientsBatch {
+        private final Set<Integer> dishIds = new HashSet<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private Map<Integer, List<DishIngredient>> recipes;
+
+        DishIngredientsBatch(Collection<Dish> dishes) {
+            for (Dish dish : dishes) {
+                dishIds.add(dish.getId());
+            }
+        }
+
+        List<DishIngredient> get(int dishId) {
+            lock.lock();
+            try {
+                if (recipes == null) {
+                    Connection connection = dbConnection.getDBConnection();
+                    try {
+                        recipes = loadDishIngredients(connection, dishIds);
+                    } catch (SQLException e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        dbConnection.close(connection);
+                    }
+                }
+                return recipes.getOrDefault(dishId, new ArrayList<>());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class RowSyncCounter {
+        private final LongAdder inserted = new LongAdder();
+        private final LongAdder updated = new LongAdder();
+        private final LongAdder deleted = new LongAdder();
+        private final LongAdder unchanged = new LongAdder();
+
+        void add(ChildRowDiff diff) {
+            if (diff == null) {
+                return;
+            }
+            inserted.add(diff.inserts().size());
+            updated.add(diff.updates().size());
+            deleted.add(diff.deletes().size());
+            unchanged.add(diff.unchanged());
+        }
+
+        RowSyncStats snapshot() {
+            return new RowSyncStats(inserted.sum(), updated.sum(), deleted.sum(), unchanged.sum());
+        }
+    }
+
+    /** State of one order while it is being written, kept so a failure can be undone. */
+    static final class OrderWrite {
+        private final Order orderToSave;
+        private final List<DishOrder> dishOrders;
+        private final Map<Integer, Integer> dishQuantities;
+        // Date des sorties de stock écrites ; le contrôle de stock porte toujours sur le solde actuel
+        private final Instant consumedAt;
+        private Map<Integer, RequiredIngredient> requiredQuantities = Map.of();
+        private Map<Integer, Double> reserved = Map.of();
+        private Map<Integer, Double> released = Map.of();
+        private Map<Integer, Double> releasedMovements = Map.of();
+        private Order savedOrder;
+        private ChildRowDiff lineDiff;
+
+        private OrderWrite(Order orderToSave, List<DishOrder> dishOrders, Map<Integer, Integer> dishQuantities) {
+            this.orderToSave = orderToSave;
+            this.dishOrders = dishOrders;
+            this.dishQuantities = dishQuantities;
+            this.consumedAt =
+                    orderToSave.getCreationDateTime() != null
+                            ? orderToSave.getCreationDateTime()
+                            : Instant.now();
+        }
+
+        boolean isUpdate() {
+            return orderToSave.getId() > 0;
+        }
+
+        int orderId() {
+            return orderToSave.getId();
+        }
+
+        Set<Integer> dishIds() {
+            return dishQuantities.keySet();
+        }
+
+        Order savedOrder() {
+            return savedOrder;
+        }
+    }
+
+    private record OrderHeader(
+            int id, String reference, Instant creationDateTime, TableOrder tableOrder) {}
+
+    private record RequiredIngredient(int ingredientId, String name, double quantity, Unit unit) {
+        RequiredIngredient plus(RequiredIngredient other) {
+            return new RequiredIngredient(ingredientId, name, quantity + other.quantity, unit);
+        }
+    }
 }
\ No newline at end of file
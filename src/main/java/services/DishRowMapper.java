@@ -0,0 +1,37 @@
+package services;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import models.Dish;
+import models.DishTypeEnum;
+
+class DishRowMapper extends IndexedRowMapper<Dish> {
+
+    private static final int ID = 0;
+    private static final int NAME = 1;
+    private static final int TYPE = 2;
+    private static final int PRICE = 3;
+
+    DishRowMapper(String idColumn, String nameColumn, String typeColumn, String priceColumn) {
+        super(idColumn, nameColumn, typeColumn, priceColumn);
+    }
+
+    /** Columns of the dish table: id, name, dish_type, price. */
+    static DishRowMapper plain() {
+        return new DishRowMapper("id", "name", "dish_type", "price");
+    }
+
+    /** Dish columns aliased dish_id, dish_name, dish_type, dish_price in joins. */
+    static DishRowMapper prefixed() {
+        return new DishRowMapper("dish_id", "dish_name", "dish_type", "dish_price");
+    }
+
+    @Override
+    protected Dish mapRow(ResultSet rs, int[] columns) throws SQLException {
+        int id = rs.getInt(columns[ID]);
+        String name = rs.getString(columns[NAME]);
+        DishTypeEnum type = EnumLookup.DISH_TYPE.parse(rs.getString(columns[TYPE]));
+        double price = rs.getDouble(columns[PRICE]);
+        return new Dish(id, name, type, rs.wasNull() ? null : price);
+    }
+}
@@ -0,0 +1,44 @@
+package services;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import models.CategoryEnum;
+import models.DishTypeEnum;
+import models.MovementTypeEnum;
+import models.Unit;
+
+/**
+ * Label to constant lookup built once per enum. Unlike {@code valueOf(s.toUpperCase())} it
+ * allocates nothing for the spellings the database actually returns (upper and lower case).
+ */
+final class EnumLookup<E extends Enum<E>> {
+
+    static final EnumLookup<CategoryEnum> CATEGORY = new EnumLookup<>(CategoryEnum.class);
+    static final EnumLookup<DishTypeEnum> DISH_TYPE = new EnumLookup<>(DishTypeEnum.class);
+    static final EnumLookup<Unit> UNIT = new EnumLookup<>(Unit.class);
+    static final EnumLookup<MovementTypeEnum> MOVEMENT_TYPE = new EnumLookup<>(MovementTypeEnum.class);
+
+    private final Class<E> type;
+    private final Map<String, E> byLabel = new HashMap<>();
+
+    private EnumLookup(Class<E> type) {
+        this.type = type;
+        for (E constant : type.getEnumConstants()) {
+            byLabel.put(constant.name(), constant);
+            byLabel.put(constant.name().toLowerCase(Locale.ROOT), constant);
+        }
+    }
+
+    E parse(String label) {
+        E constant = byLabel.get(label);
+        if (constant != null) {
+            return constant;
+        }
+        if (label == null) {
+            throw new IllegalArgumentException("Missing " + type.getSimpleName() + " value");
+        }
+        // Casse mixte : rare, on garde le comportement historique
+        return Enum.valueOf(type, label.toUpperCase(Locale.ROOT));
+    }
+}
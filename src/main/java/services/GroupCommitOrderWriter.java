@@ -0,0 +1,256 @@
+package services;
+
+import db.DBConnection;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import models.Order;
+import services.DataRetriever.OrderWrite;
+
+/**
+ * Saves orders in groups: callers enqueue, a single writer thread saves everything waiting in one
+ * transaction and commits once, so concurrent orders share the commit (and its fsync).
+ *
+ * <p>Each order runs under its own savepoint. An order that fails (no stock, table taken...) is
+ * rolled back alone and its caller gets the same exception {@link DataRetriever#saveOrder} would
+ * have thrown; the other orders of the group are committed.
+ */
+public class GroupCommitOrderWriter implements AutoCloseable {
+
+    private static final long POLL_MILLIS = 100;
+
+    private final DBConnection dbConnection;
+    private final DataRetriever dataRetriever;
+    private final int maxBatchSize;
+    private final BlockingQueue<PendingOrder> queue;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder savedOrders = new LongAdder();
+    private final LongAdder failedOrders = new LongAdder();
+    private final LongAdder postCommitFailures = new LongAdder();
+
+    public GroupCommitOrderWriter(
+            DBConnection dbConnection, DataRetriever dataRetriever, int queueCapacity, int maxBatchSize) {
+        if (queueCapacity <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("queueCapacity and maxBatchSize must be positive");
+        }
+        this.dbConnection = dbConnection;
+        this.dataRetriever = dataRetriever;
+        this.maxBatchSize = maxBatchSize;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.writer = new Thread(this::run, "order-group-commit");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /** Queues the order; blocks while the queue is full. Validation errors fail the future at once. */
+    public CompletableFuture<Order> submit(Order orderToSave) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Order writer is closed"));
+        }
+
+        PendingOrder pending;
+        try {
+            pending = new PendingOrder(dataRetriever.prepareOrderWrite(orderToSave), new CompletableFuture<>());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        // Fermé pendant l'attente : le writer ne reviendra peut-être plus lire la file
+        if (closed && queue.remove(pending)) {
+            pending.future().completeExceptionally(new IllegalStateException("Order writer is closed"));
+        }
+        return pending.future();
+    }
+
+    /** Blocking variant of {@link #submit}, throwing what saveOrder would throw. */
+    public Order saveOrder(Order orderToSave) {
+        try {
+            return submit(orderToSave).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    public int getQueuedOrders() {
+        return queue.size();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getSavedOrders() {
+        return savedOrders.sum();
+    }
+
+    public long getFailedOrders() {
+        return failedOrders.sum();
+    }
+
+    /** Committed orders whose post-commit bookkeeping failed; they are still reported as saved. */
+    public long getPostCommitFailures() {
+        return postCommitFailures.sum();
+    }
+
+    /** Stops accepting orders, saves those already queued and stops the writer. */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<PendingOrder> batch = new ArrayList<>(maxBatchSize);
+        while (!closed || !queue.isEmpty()) {
+            PendingOrder first;
+            try {
+                first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (first == null) {
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, maxBatchSize - 1);
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<PendingOrder> batch) {
+        StockLedger ledger = dataRetriever.getStockLedger();
+        List<PendingOrder> written = new ArrayList<>(batch.size());
+        Connection conn = null;
+        boolean holdsFlushes = false;
+
+        try {
+            Set<Integer> dishIds = new HashSet<>();
+            List<Integer> updatedOrderIds = new ArrayList<>();
+            for (PendingOrder pending : batch) {
+                dishIds.addAll(pending.write().dishIds());
+                if (pending.write().isUpdate()) {
+                    updatedOrderIds.add(pending.write().orderId());
+                }
+            }
+            if (ledger != null && !updatedOrderIds.isEmpty()) {
+                // Tenu jusqu'à movementsDeleted, comme dans saveOrder
+                ledger.flushAndHold();
+                holdsFlushes = true;
+            }
+
+            conn = dbConnection.getDBConnection();
+            conn.setAutoCommit(false);
+            // Avec le ledger, seules les commandes modifiées suppriment des mouvements
+            dataRetriever.lockIngredientsOfOrders(conn, ledger == null ? dishIds : Set.of(), updatedOrderIds);
+
+            for (PendingOrder pending : batch) {
+                Savepoint savepoint = conn.setSavepoint();
+                try {
+                    dataRetriever.writeOrder(conn, pending.write(), ledger);
+                    conn.releaseSavepoint(savepoint);
+                    written.add(pending);
+                } catch (SQLException | RuntimeException e) {
+                    dataRetriever.undoOrderWrite(pending.write(), ledger);
+                    conn.rollback(savepoint);
+                    fail(pending, translate(conn, pending, e));
+                }
+            }
+
+            conn.commit();
+
+        } catch (SQLException | RuntimeException e) {
+            // Échec du lot lui-même (connexion, commit) : aucune commande n'est enregistrée
+            if (conn != null) {
+                try {
+                    conn.rollback();
+                } catch (SQLException ignored) {
+                }
+            }
+            RuntimeException failure = e instanceof RuntimeException runtime ? runtime : new RuntimeException(e);
+            for (PendingOrder pending : written) {
+                dataRetriever.undoOrderWrite(pending.write(), ledger);
+            }
+            for (PendingOrder pending : batch) {
+                fail(pending, failure);
+            }
+            release(conn);
+            if (holdsFlushes) {
+                ledger.resumeFlushes();
+            }
+            return;
+        }
+
+        // Validé : à partir d'ici plus rien ne doit annuler ni faire échouer ces commandes
+        batches.increment();
+        try {
+            for (PendingOrder pending : written) {
+                try {
+                    dataRetriever.afterOrderCommit(pending.write(), ledger);
+                } catch (RuntimeException e) {
+                    postCommitFailures.increment();
+                }
+                pending.future().complete(pending.write().savedOrder());
+                savedOrders.increment();
+            }
+        } finally {
+            release(conn);
+            if (holdsFlushes) {
+                ledger.resumeFlushes();
+            }
+        }
+    }
+
+    private void release(Connection conn) {
+        if (conn == null) {
+            return;
+        }
+        try {
+            conn.setAutoCommit(true);
+        } catch (SQLException ignored) {
+        }
+        dbConnection.close(conn);
+    }
+
+    private RuntimeException translate(Connection conn, PendingOrder pending, Exception e) {
+        try {
+            return dataRetriever.orderFailure(conn, pending.write(), e);
+        } catch (SQLException ex) {
+            return new RuntimeException(ex);
+        }
+    }
+
+    private void fail(PendingOrder pending, RuntimeException failure) {
+        if (pending.future().completeExceptionally(failure)) {
+            failedOrders.increment();
+        }
+    }
+
+    private record PendingOrder(OrderWrite write, CompletableFuture<Order> future) {}
+}
@@ -0,0 +1,126 @@
+package services;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out sequence values from memory, reserving them from PostgreSQL by blocks: one round trip
+ * per {@code blockSize} ids instead of one per insert.
+ *
+ * <p>Values are still taken with nextval, so rows inserted elsewhere with the column default never
+ * collide with them. The unused part of a block is lost when the application stops, which only
+ * leaves gaps in the ids and references.
+ */
+final class IdAllocator {
+
+    private static final String ORDER_REFERENCE_SEQUENCE = "order_reference_seq";
+
+    private final Map<String, String> sequenceByTable = new ConcurrentHashMap<>();
+    private final Map<String, SequenceBlock> blocks = new ConcurrentHashMap<>();
+    private volatile int blockSize;
+
+    IdAllocator(int blockSize) {
+        setBlockSize(blockSize);
+    }
+
+    /** Takes effect at the next block reservation of each sequence. */
+    void setBlockSize(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        this.blockSize = blockSize;
+    }
+
+    /** Next id of the serial column {@code id} of this table (quoted if needed, e.g. "\"order\""). */
+    int nextId(Connection conn, String table) throws SQLException {
+        String sequence = sequenceByTable.get(table);
+        if (sequence == null) {
+            sequence = findSerialSequence(conn, table);
+            sequenceByTable.put(table, sequence);
+        }
+        return Math.toIntExact(next(conn, sequence));
+    }
+
+    String nextOrderReference(Connection conn) throws SQLException {
+        return String.format("ORD%05d", next(conn, ORDER_REFERENCE_SEQUENCE));
+    }
+
+    private long next(Connection conn, String sequence) throws SQLException {
+        SequenceBlock block = blocks.computeIfAbsent(sequence, SequenceBlock::new);
+        long value = block.take();
+        return value >= 0 ? value : block.takeOrRefill(conn, blockSize);
+    }
+
+    private static String findSerialSequence(Connection conn, String table) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT pg_get_serial_sequence(?, 'id')")) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next() && rs.getString(1) != null) {
+                    return rs.getString(1);
+                }
+            }
+        }
+        throw new RuntimeException("No serial sequence for " + table + ".id");
+    }
+
+    private static final class SequenceBlock {
+        private final String sequence;
+        private final ReentrantLock refillLock = new ReentrantLock();
+        private volatile Reserved current = new Reserved(new long[0], new AtomicInteger());
+
+        private SequenceBlock(String sequence) {
+            this.sequence = sequence;
+        }
+
+        /** Returns -1 when the current block is used up. */
+        long take() {
+            Reserved reserved = current;
+            int index = reserved.cursor().getAndIncrement();
+            return index < reserved.values().length ? reserved.values()[index] : -1;
+        }
+
+        long takeOrRefill(Connection conn, int blockSize) throws SQLException {
+            refillLock.lock();
+            try {
+                // Un autre thread a peut-être rechargé pendant l'attente
+                long value = take();
+                if (value >= 0) {
+                    return value;
+                }
+                long[] values = reserve(conn, blockSize);
+                current = new Reserved(values, new AtomicInteger(1));
+                return values[0];
+            } finally {
+                refillLock.unlock();
+            }
+        }
+
+        // Pas d'ALTER SEQUENCE ... INCREMENT BY : les INSERT qui prennent la valeur par défaut restent inchangés
+        private long[] reserve(Connection conn, int blockSize) throws SQLException {
+            long[] reserved = new long[blockSize];
+            String sql = "SELECT nextval(?::regclass) FROM generate_series(1, ?)";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, sequence);
+                ps.setInt(2, blockSize);
+                try (ResultSet rs = ps.executeQuery()) {
+                    int count = 0;
+                    while (rs.next()) {
+                        reserved[count++] = rs.getLong(1);
+                    }
+                    if (count != blockSize) {
+                        throw new RuntimeException("Unable to reserve ids from " + sequence);
+                    }
+                }
+            }
+            return reserved;
+        }
+    }
+
+    private record Reserved(long[] values, AtomicInteger cursor) {}
+}
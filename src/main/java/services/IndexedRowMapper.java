@@ -0,0 +1,34 @@
+package services;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Row mapper that resolves its column labels to indexes once per {@link ResultSet} instead of on
+ * every row. Instances keep per-result-set state: create one per query, never share them.
+ */
+abstract class IndexedRowMapper<T> implements RowMapper<T> {
+
+    private final String[] labels;
+    private final int[] columns;
+    private ResultSet resolvedFor;
+
+    /** A {@code null} label marks an optional column; its index is left at 0. */
+    IndexedRowMapper(String... labels) {
+        this.labels = labels;
+        this.columns = new int[labels.length];
+    }
+
+    @Override
+    public final T map(ResultSet rs) throws SQLException {
+        if (rs != resolvedFor) {
+            for (int i = 0; i < labels.length; i++) {
+                columns[i] = labels[i] == null ? 0 : rs.findColumn(labels[i]);
+            }
+            resolvedFor = rs;
+        }
+        return mapRow(rs, columns);
+    }
+
+    protected abstract T mapRow(ResultSet rs, int[] columns) throws SQLException;
+}
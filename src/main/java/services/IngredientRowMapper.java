@@ -0,0 +1,58 @@
+package services;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import models.Ingredient;
+
+class IngredientRowMapper extends IndexedRowMapper<Ingredient> {
+
+    private static final int ID = 0;
+    private static final int NAME = 1;
+    private static final int PRICE = 2;
+    private static final int CATEGORY = 3;
+    private static final int QUANTITY = 4;
+
+    IngredientRowMapper(
+            String idColumn,
+            String nameColumn,
+            String priceColumn,
+            String categoryColumn,
+            String quantityColumn) {
+        super(idColumn, nameColumn, priceColumn, categoryColumn, quantityColumn);
+    }
+
+    /** Columns of the ingredient table: id, name, price, category. */
+    static IngredientRowMapper plain() {
+        return new IngredientRowMapper("id", "name", "price", "category", null);
+    }
+
+    /** Ingredient joined with its recipe line; quantity_required may be null. */
+    static IngredientRowMapper withOptionalQuantity() {
+        return new IngredientRowMapper(
+                "ingredient_id", "ingredient_name", "ingredient_price", "category", "quantity_required");
+    }
+
+    /** Ingredient columns aliased ingredient_id, ingredient_name, ingredient_price in joins. */
+    static IngredientRowMapper prefixed() {
+        return new IngredientRowMapper(
+                "ingredient_id", "ingredient_name", "ingredient_price", "category", null);
+    }
+
+    @Override
+    protected Ingredient mapRow(ResultSet rs, int[] columns) throws SQLException {
+        Ingredient ingredient =
+                new Ingredient(
+                        rs.getInt(columns[ID]),
+                        rs.getString(columns[NAME]),
+                        rs.getDouble(columns[PRICE]),
+                        EnumLookup.CATEGORY.parse(rs.getString(columns[CATEGORY])));
+
+        if (columns[QUANTITY] > 0) {
+            double quantity = rs.getDouble(columns[QUANTITY]);
+            if (!rs.wasNull()) {
+                ingredient.setQuantity(quantity);
+            }
+        }
+        return ingredient;
+    }
+}
@@ -0,0 +1,51 @@
+package services;
+
+/** Child rows written by the diff-based saves of {@link DataRetriever}, for one table. */
+public class RowSyncStats {
+    private final long inserted;
+    private final long updated;
+    private final long deleted;
+    private final long unchanged;
+
+    public RowSyncStats(long inserted, long updated, long deleted, long unchanged) {
+        this.inserted = inserted;
+        this.updated = updated;
+        this.deleted = deleted;
+        this.unchanged = unchanged;
+    }
+
+    public long getInserted() {
+        return inserted;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    /** Lines saved again with the same content, for which no statement was issued. */
+    public long getUnchanged() {
+        return unchanged;
+    }
+
+    public long getRowsTouched() {
+        return inserted + updated + deleted;
+    }
+
+    @Override
+    public String toString() {
+        return "RowSyncStats{"
+                + "inserted="
+                + inserted
+                + ", updated="
+                + updated
+                + ", deleted="
+                + deleted
+                + ", unchanged="
+                + unchanged
+                + '}';
+    }
+}
@@ -0,0 +1,518 @@
+package services;
+
+import db.DBConnection;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import models.StockDiscrepancy;
+import models.StockValue;
+import models.Unit;
+
+/**
+ * In-process ingredient balances used by {@link DataRetriever#saveOrder} instead of querying the
+ * stock on every order.
+ *
+ * <p>Balances are kept in hundredths (the scale of {@code stock_movement.quantity}) in atomic
+ * counters; a reservation is a compare-and-set loop per ingredient, so orders never block each
+ * other. The OUT movements of committed orders are queued and written to {@code stock_movement}
+ * by a single writer every {@code flushInterval} or as soon as {@code flushBatchSize} orders are
+ * waiting. Each order also leaves its reserved quantities in {@code stock_ledger_pending}, written
+ * in the order's own transaction and removed with its movements: on restart, {@link #start()}
+ * writes the movements still listed there before loading the balances.
+ *
+ * <p>The ledger assumes it is the only process deducting stock. Movements written around it
+ * (ingredient updates, imports) are picked up with {@link #reload}; saveIngredient and a
+ * {@link StockMovementImporter} given the ledger call it themselves.
+ */
+public class StockLedger implements AutoCloseable {
+
+    private static final double TOLERANCE = 0.005;
+
+    private final DBConnection dbConnection;
+    private final DataRetriever dataRetriever;
+    private final long flushIntervalMillis;
+    private final int flushBatchSize;
+
+    private final Map<Integer, AtomicLong> balances = new ConcurrentHashMap<>();
+    // Consommations validées mais pas encore écrites en base, par ingrédient
+    private final Map<Integer, LongAdder> unflushed = new ConcurrentHashMap<>();
+    // Stock de stock_movement tel que connu du ledger : un reload n'applique que l'écart avec la base
+    private final Map<Integer, AtomicLong> persisted = new ConcurrentHashMap<>();
+    private final LinkedBlockingDeque<PendingOrder> queue = new LinkedBlockingDeque<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService writer;
+
+    private final LongAdder flushedOrders = new LongAdder();
+    private final LongAdder failedFlushes = new LongAdder();
+    private final LongAdder rejectedReservations = new LongAdder();
+
+    StockLedger(
+            DBConnection dbConnection,
+            DataRetriever dataRetriever,
+            Duration flushInterval,
+            int flushBatchSize) {
+        if (flushInterval == null || flushInterval.isNegative() || flushInterval.isZero()) {
+            throw new IllegalArgumentException("flushInterval must be positive");
+        }
+        if (flushBatchSize <= 0) {
+            throw new IllegalArgumentException("flushBatchSize must be positive");
+        }
+        this.dbConnection = dbConnection;
+        this.dataRetriever = dataRetriever;
+        this.flushIntervalMillis = flushInterval.toMillis();
+        this.flushBatchSize = flushBatchSize;
+        this.writer =
+                Executors.newSingleThreadScheduledExecutor(
+                        runnable -> {
+                            Thread thread = new Thread(runnable, "stock-ledger-writer");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+    }
+
+    /** Replays the orders left pending by a previous run, loads every balance, starts flushing. */
+    void start() {
+        Connection conn = dbConnection.getDBConnection();
+        try {
+            conn.setAutoCommit(false);
+            recoverPendingOrders(conn);
+            conn.commit();
+        } catch (SQLException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException ignored) {
+            }
+            throw new RuntimeException("Stock ledger recovery failed", e);
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException ignored) {
+            }
+            dbConnection.close(conn);
+        }
+
+        reload(findAllIngredientIds());
+        writer.scheduleWithFixedDelay(
+                this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public double getBalance(int ingredientId) {
+        return balance(ingredientId).get() / 100.0;
+    }
+
+    /**
+     * Deducts every quantity or none of them.
+     *
+     * @return empty when reserved, otherwise the first ingredient without enough stock
+     */
+    OptionalInt tryReserve(Map<Integer, Double> quantities) {
+        List<Map.Entry<Integer, Double>> done = new ArrayList<>();
+        for (Map.Entry<Integer, Double> entry : quantities.entrySet()) {
+            long amount = toHundredths(entry.getValue());
+            AtomicLong balance = balance(entry.getKey());
+            long current;
+            do {
+                current = balance.get();
+                if (current < amount) {
+                    credit(done);
+                    rejectedReservations.increment();
+                    return OptionalInt.of(entry.getKey());
+                }
+            } while (!balance.compareAndSet(current, current - amount));
+            done.add(entry);
+        }
+        return OptionalInt.empty();
+    }
+
+    /** Gives quantities back, e.g. when the order transaction that reserved them rolls back. */
+    void credit(Map<Integer, Double> quantities) {
+        credit(quantities.entrySet());
+    }
+
+    void debit(Map<Integer, Double> quantities) {
+        for (Map.Entry<Integer, Double> entry : quantities.entrySet()) {
+            balance(entry.getKey()).addAndGet(-toHundredths(entry.getValue()));
+        }
+    }
+
+    /** Queues the OUT movements of an order whose transaction has committed. */
+    void enqueue(int orderId, Instant at, List<Consumption> consumption) {
+        for (Consumption item : consumption) {
+            unflushed
+                    .computeIfAbsent(item.ingredientId(), id -> new LongAdder())
+                    .add(toHundredths(item.quantity()));
+        }
+        queue.offerLast(new PendingOrder(orderId, at, consumption));
+        if (queue.size() >= flushBatchSize) {
+            try {
+                writer.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                // Fermeture en cours : le flush final de close() écrira cette commande
+            }
+        }
+    }
+
+    /** Writes every queued order now. Blocks while the background writer is flushing. */
+    public void flush() {
+        flushLock.lock();
+        try {
+            while (!queue.isEmpty()) {
+                flushBatch();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Stock ledger flush failed", e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Picks up movements written outside the ledger (ingredient updates, imports). Each balance
+     * moves by the difference between the database and what the ledger last knew of it, so
+     * reservations made meanwhile are kept; flushes wait until the reload is done.
+     */
+    public void reload(Collection<Integer> ingredientIds) {
+        if (ingredientIds.isEmpty()) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            Map<Integer, StockValue> stock = dataRetriever.getCurrentStockValues(ingredientIds);
+            for (Map.Entry<Integer, StockValue> entry : stock.entrySet()) {
+                int ingredientId = entry.getKey();
+                long stored = toHundredths(entry.getValue().getQuantity());
+                AtomicLong known = persisted.get(ingredientId);
+                if (known == null) {
+                    persisted.put(ingredientId, new AtomicLong(stored));
+                    balances.putIfAbsent(ingredientId, new AtomicLong(stored - unflushedHundredths(ingredientId)));
+                } else {
+                    balances.get(ingredientId).addAndGet(stored - known.getAndSet(stored));
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Flushes the queue, then keeps flushes and reloads waiting until {@link #resumeFlushes()}. An
+     * order rewrite holds this from before its ingredient locks until {@link #movementsDeleted} is
+     * applied, so no reload reads its deletion before the ledger knows about it.
+     */
+    void flushAndHold() {
+        flushLock.lock();
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            flushLock.unlock();
+            throw e;
+        }
+    }
+
+    void resumeFlushes() {
+        flushLock.unlock();
+    }
+
+    /** OUT movements deleted from the database by a committed order rewrite, already credited. */
+    void movementsDeleted(Map<Integer, Double> quantities) {
+        flushLock.lock();
+        try {
+            for (Map.Entry<Integer, Double> entry : quantities.entrySet()) {
+                AtomicLong known = persisted.get(entry.getKey());
+                if (known != null) {
+                    known.addAndGet(toHundredths(entry.getValue()));
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Compares each in-memory balance with the stock derived from {@code stock_movement}, once
+     * the queued movements are taken into account. Expected is the database, actual the ledger.
+     */
+    public List<StockDiscrepancy> reconcile() {
+        List<Integer> ingredientIds = findAllIngredientIds();
+        Map<Integer, StockValue> stock = dataRetriever.getCurrentStockValues(ingredientIds);
+
+        List<StockDiscrepancy> discrepancies = new ArrayList<>();
+        for (Integer ingredientId : ingredientIds) {
+            double expected =
+                    (toHundredths(stock.get(ingredientId).getQuantity()) - unflushedHundredths(ingredientId))
+                            / 100.0;
+            double actual = getBalance(ingredientId);
+            if (Math.abs(expected - actual) > TOLERANCE) {
+                discrepancies.add(new StockDiscrepancy(ingredientId, expected, actual));
+            }
+        }
+        return discrepancies;
+    }
+
+    public int getQueuedOrders() {
+        return queue.size();
+    }
+
+    public long getFlushedOrders() {
+        return flushedOrders.sum();
+    }
+
+    public long getFailedFlushes() {
+        return failedFlushes.sum();
+    }
+
+    public long getRejectedReservations() {
+        return rejectedReservations.sum();
+    }
+
+    /** Stops the writer after a last flush. Orders still queued on failure stay pending in the database. */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(flushIntervalMillis + 5_000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void flushQuietly() {
+        if (!flushLock.tryLock()) {
+            return;
+        }
+        try {
+            while (!queue.isEmpty()) {
+                flushBatch();
+            }
+        } catch (SQLException | RuntimeException e) {
+            // Le lot est remis en file et retenté au prochain passage
+            failedFlushes.increment();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushBatch() throws SQLException {
+        List<PendingOrder> batch = new ArrayList<>(flushBatchSize);
+        queue.drainTo(batch, flushBatchSize);
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Connection conn = dbConnection.getDBConnection();
+        try {
+            conn.setAutoCommit(false);
+            writeMovements(conn, batch);
+            conn.commit();
+        } catch (SQLException | RuntimeException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException ignored) {
+            }
+            for (int i = batch.size() - 1; i >= 0; i--) {
+                queue.offerFirst(batch.get(i));
+            }
+            throw e;
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException ignored) {
+            }
+            dbConnection.close(conn);
+        }
+
+        for (PendingOrder order : batch) {
+            for (Consumption item : order.consumption()) {
+                long amount = toHundredths(item.quantity());
+                unflushed.get(item.ingredientId()).add(-amount);
+                AtomicLong known = persisted.get(item.ingredientId());
+                if (known != null) {
+                    known.addAndGet(-amount);
+                }
+            }
+        }
+        flushedOrders.add(batch.size());
+    }
+
+    private void writeMovements(Connection conn, List<PendingOrder> batch) throws SQLException {
+        List<Integer> orderIds = new ArrayList<>();
+        List<Integer> ingredientIds = new ArrayList<>();
+        List<Double> quantities = new ArrayList<>();
+        List<String> units = new ArrayList<>();
+        List<Timestamp> createdAt = new ArrayList<>();
+        Instant oldest = null;
+
+        for (PendingOrder order : batch) {
+            for (Consumption item : order.consumption()) {
+                orderIds.add(order.orderId());
+                ingredientIds.add(item.ingredientId());
+                quantities.add(item.quantity());
+                units.add(item.unit().name());
+                createdAt.add(Timestamp.from(order.at()));
+            }
+            if (oldest == null || order.at().isBefore(oldest)) {
+                oldest = order.at();
+            }
+        }
+
+        DataRetriever.lockIngredients(conn, new HashSet<>(ingredientIds));
+
+        // Une commande supprimée entre-temps ne bloque pas le lot
+        String insertSql = """
+            INSERT INTO stock_movement(id_ingredient, quantity, type, unit, creation_datetime, id_order)
+            SELECT u.id_ingredient, u.quantity, 'OUT'::movement_type, u.unit::unit_type, u.created_at, u.id_order
+            FROM unnest(?::int[], ?::int[], ?::numeric[], ?::varchar[], ?::timestamp[])
+                 AS u(id_order, id_ingredient, quantity, unit, created_at)
+            JOIN "order" o ON o.id = u.id_order
+            """;
+        try (PreparedStatement ps = conn.prepareStatement(insertSql)) {
+            ps.setArray(1, conn.createArrayOf("integer", orderIds.toArray()));
+            ps.setArray(2, conn.createArrayOf("integer", ingredientIds.toArray()));
+            ps.setArray(3, conn.createArrayOf("numeric", quantities.toArray()));
+            ps.setArray(4, conn.createArrayOf("varchar", units.toArray()));
+            ps.setArray(5, conn.createArrayOf("timestamp", createdAt.toArray()));
+            ps.executeUpdate();
+        }
+
+        Integer[] flushedOrderIds = batch.stream().map(PendingOrder::orderId).toArray(Integer[]::new);
+        try (PreparedStatement ps =
+                     conn.prepareStatement("DELETE FROM stock_ledger_pending WHERE id_order = ANY(?)")) {
+            ps.setArray(1, conn.createArrayOf("integer", flushedOrderIds));
+            ps.executeUpdate();
+        }
+
+        if (!ingredientIds.isEmpty()) {
+            invalidateSnapshots(conn, ingredientIds, oldest);
+        }
+    }
+
+    private void recoverPendingOrders(Connection conn) throws SQLException {
+        List<Integer> lockedIds = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement("""
+                SELECT id_ingredient FROM stock_ledger_pending
+                UNION
+                SELECT sm.id_ingredient
+                FROM stock_movement sm
+                JOIN stock_ledger_pending p ON p.id_order = sm.id_order
+                """);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                lockedIds.add(rs.getInt("id_ingredient"));
+            }
+        }
+        DataRetriever.lockIngredients(conn, lockedIds);
+
+        // Mouvements éventuellement déjà écrits pour ces commandes : on repart de zéro
+        try (PreparedStatement ps = conn.prepareStatement("""
+                DELETE FROM stock_movement sm
+                USING stock_ledger_pending p
+                WHERE sm.id_order = p.id_order
+                """)) {
+            ps.executeUpdate();
+        }
+
+        // Les quantités réservées à l'époque, pas la recette actuelle
+        String rebuildSql = """
+            INSERT INTO stock_movement(id_ingredient, quantity, type, unit, creation_datetime, id_order)
+            SELECT p.id_ingredient, p.quantity, 'OUT'::movement_type, p.unit, p.consumed_at, p.id_order
+            FROM stock_ledger_pending p
+            RETURNING id_ingredient, creation_datetime
+            """;
+
+        List<Integer> ingredientIds = new ArrayList<>();
+        Instant oldest = null;
+        try (PreparedStatement ps = conn.prepareStatement(rebuildSql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                ingredientIds.add(rs.getInt("id_ingredient"));
+                Instant createdAt = rs.getTimestamp("creation_datetime").toInstant();
+                if (oldest == null || createdAt.isBefore(oldest)) {
+                    oldest = createdAt;
+                }
+            }
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM stock_ledger_pending")) {
+            ps.executeUpdate();
+        }
+
+        if (!ingredientIds.isEmpty()) {
+            invalidateSnapshots(conn, ingredientIds, oldest);
+        }
+    }
+
+    private void invalidateSnapshots(Connection conn, List<Integer> ingredientIds, Instant since)
+            throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "DELETE FROM stock_snapshot WHERE id_ingredient = ANY(?) AND as_of_datetime >= ?")) {
+            ps.setArray(1, conn.createArrayOf("integer", ingredientIds.toArray()));
+            ps.setTimestamp(2, Timestamp.from(since));
+            ps.executeUpdate();
+        }
+    }
+
+    private List<Integer> findAllIngredientIds() {
+        Connection conn = dbConnection.getDBConnection();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT id FROM ingredient");
+             ResultSet rs = ps.executeQuery()) {
+            List<Integer> ingredientIds = new ArrayList<>();
+            while (rs.next()) {
+                ingredientIds.add(rs.getInt("id"));
+            }
+            return ingredientIds;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            dbConnection.close(conn);
+        }
+    }
+
+    private AtomicLong balance(int ingredientId) {
+        AtomicLong balance = balances.get(ingredientId);
+        if (balance != null) {
+            return balance;
+        }
+        // Ingrédient créé après le démarrage : chargé à la première utilisation
+        reload(List.of(ingredientId));
+        return balances.get(ingredientId);
+    }
+
+    private void credit(Collection<Map.Entry<Integer, Double>> quantities) {
+        for (Map.Entry<Integer, Double> entry : quantities) {
+            balance(entry.getKey()).addAndGet(toHundredths(entry.getValue()));
+        }
+    }
+
+    private long unflushedHundredths(int ingredientId) {
+        LongAdder pending = unflushed.get(ingredientId);
+        return pending == null ? 0 : pending.sum();
+    }
+
+    private static long toHundredths(double quantity) {
+        return Math.round(quantity * 100);
+    }
+
+    record Consumption(int ingredientId, double quantity, Unit unit) {}
+
+    private record PendingOrder(int orderId, Instant at, List<Consumption> consumption) {}
+}
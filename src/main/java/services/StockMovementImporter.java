@@ -0,0 +1,273 @@
+package services;
+
+import db.DBConnection;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.LongConsumer;
+import models.IngredientStockMouvement;
+import models.StockMouvement;
+import models.StockValue;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * Streams large volumes of stock movements into {@code stock_movement} with {@code COPY FROM
+ * STDIN}. Memory use is bounded by the copy buffer, whatever the size of the input.
+ *
+ * <p>CSV input must have the columns {@code id_ingredient, quantity, type, unit,
+ * creation_datetime}.
+ */
+public class StockMovementImporter {
+
+    private static final String COPY_SQL =
+            "COPY stock_movement(id_ingredient, quantity, type, unit, creation_datetime)"
+                    + " FROM STDIN WITH (FORMAT csv, HEADER %s)";
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final long DEFAULT_PROGRESS_INTERVAL = 10_000;
+
+    private final DBConnection dbConnection;
+    private final int bufferSize;
+    private final long progressInterval;
+    private volatile StockLedger stockLedger;
+
+    public StockMovementImporter(DBConnection dbConnection) {
+        this(dbConnection, DEFAULT_BUFFER_SIZE, DEFAULT_PROGRESS_INTERVAL);
+    }
+
+    public StockMovementImporter(DBConnection dbConnection, int bufferSize, long progressInterval) {
+        if (bufferSize <= 0 || progressInterval <= 0) {
+            throw new IllegalArgumentException("bufferSize and progressInterval must be positive");
+        }
+        this.dbConnection = dbConnection;
+        this.bufferSize = bufferSize;
+        this.progressInterval = progressInterval;
+    }
+
+    /** Ledger whose balances are reloaded for the imported ingredients after each import. */
+    public void setStockLedger(StockLedger stockLedger) {
+        this.stockLedger = stockLedger;
+    }
+
+    /**
+     * Copies the movements and returns the number of rows inserted. {@code progress} receives the
+     * running row count every {@code progressInterval} rows and once at the end; it may be null.
+     */
+    public long importMovements(Iterator<IngredientStockMouvement> movements, LongConsumer progress) {
+        if (movements == null) {
+            throw new IllegalArgumentException("movements must not be null");
+        }
+
+        return runInTransaction(
+                (copyManager) -> {
+                    CopyIn copyIn = copyManager.copyIn(String.format(COPY_SQL, "false"));
+                    try {
+                        StringBuilder buffer = new StringBuilder(bufferSize);
+                        long rows = 0;
+                        while (movements.hasNext()) {
+                            appendCsvLine(buffer, movements.next());
+                            rows++;
+                            if (buffer.length() >= bufferSize) {
+                                flush(copyIn, buffer);
+                            }
+                            if (progress != null && rows % progressInterval == 0) {
+                                progress.accept(rows);
+                            }
+                        }
+                        flush(copyIn, buffer);
+                        long copied = copyIn.endCopy();
+                        if (progress != null) {
+                            progress.accept(copied);
+                        }
+                        return copied;
+                    } finally {
+                        if (copyIn.isActive()) {
+                            copyIn.cancelCopy();
+                        }
+                    }
+                });
+    }
+
+    /** Same as {@link #importMovements(Iterator, LongConsumer)} for a CSV stream. */
+    public long importCsv(Reader csv, boolean header, LongConsumer progress) {
+        if (csv == null) {
+            throw new IllegalArgumentException("csv must not be null");
+        }
+
+        return runInTransaction(
+                (copyManager) -> {
+                    LineCountingReader reader = new LineCountingReader(csv, header ? 1 : 0, progress);
+                    long copied =
+                            copyManager.copyIn(
+                                    String.format(COPY_SQL, header ? "true" : "false"), reader, bufferSize);
+                    if (progress != null) {
+                        progress.accept(copied);
+                    }
+                    return copied;
+                });
+    }
+
+    private long runInTransaction(CopyWork work) {
+        Connection conn = dbConnection.getDBConnection();
+        try {
+            conn.setAutoCommit(false);
+
+            long lastIdBefore;
+            try (PreparedStatement ps =
+                         conn.prepareStatement("SELECT COALESCE(MAX(id), 0) AS last_id FROM stock_movement");
+                 ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                lastIdBefore = rs.getLong("last_id");
+            }
+
+            long copied = work.copy(conn.unwrap(PGConnection.class).getCopyAPI());
+            List<Integer> ingredientIds = invalidateSnapshots(conn, lastIdBefore);
+
+            conn.commit();
+
+            // Le COPY contourne le ledger : ses soldes doivent relire ces ingrédients
+            StockLedger ledger = stockLedger;
+            if (ledger != null) {
+                ledger.reload(ingredientIds);
+            }
+            return copied;
+        } catch (SQLException | IOException e) {
+            rollback(conn);
+            throw new RuntimeException("Stock movement import failed: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            rollback(conn);
+            throw e;
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException ignored) {
+            }
+            dbConnection.close(conn);
+        }
+    }
+
+    /** Returns the ingredients that received movements. */
+    private List<Integer> invalidateSnapshots(Connection conn, long lastIdBefore) throws SQLException {
+        String importedSql = """
+            SELECT sm.id_ingredient, MIN(sm.creation_datetime) AS oldest
+            FROM stock_movement sm
+            WHERE sm.id > ?
+            GROUP BY sm.id_ingredient
+            """;
+        List<Integer> ingredientIds = new ArrayList<>();
+        List<Timestamp> oldest = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(importedSql)) {
+            ps.setLong(1, lastIdBefore);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ingredientIds.add(rs.getInt("id_ingredient"));
+                    oldest.add(rs.getTimestamp("oldest"));
+                }
+            }
+        }
+        if (ingredientIds.isEmpty()) {
+            return ingredientIds;
+        }
+
+        // Un snapshot en cours de calcul ailleurs est validé avant notre DELETE, qui le voit donc
+        DataRetriever.lockIngredients(conn, ingredientIds);
+
+        String deleteSql = """
+            DELETE FROM stock_snapshot ss
+            USING unnest(?::int[], ?::timestamp[]) AS m(id_ingredient, oldest)
+            WHERE ss.id_ingredient = m.id_ingredient
+            AND ss.as_of_datetime >= m.oldest
+            """;
+        try (PreparedStatement ps = conn.prepareStatement(deleteSql)) {
+            ps.setArray(1, conn.createArrayOf("integer", ingredientIds.toArray()));
+            ps.setArray(2, conn.createArrayOf("timestamp", oldest.toArray()));
+            ps.executeUpdate();
+        }
+        return ingredientIds;
+    }
+
+    private void rollback(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException ex) {
+            throw new RuntimeException("Rollback failed", ex);
+        }
+    }
+
+    private static void appendCsvLine(StringBuilder buffer, IngredientStockMouvement line) {
+        StockMouvement movement = line.getMovement();
+        StockValue value = movement.getValue();
+        buffer.append(line.getIngredientId())
+                .append(',')
+                .append(value.getQuantity())
+                .append(',')
+                .append(movement.getType().name())
+                .append(',')
+                .append(value.getUnit().name())
+                .append(',')
+                .append(Timestamp.from(movement.getCreationDateTime()))
+                .append('\n');
+    }
+
+    private static void flush(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        if (buffer.length() == 0) {
+            return;
+        }
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+
+    @FunctionalInterface
+    private interface CopyWork {
+        long copy(CopyManager copyManager) throws SQLException, IOException;
+    }
+
+    private class LineCountingReader extends FilterReader {
+        private final LongConsumer progress;
+        private long lines;
+
+        LineCountingReader(Reader in, int headerLines, LongConsumer progress) {
+            super(in);
+            this.progress = progress;
+            this.lines = -headerLines;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c == '\n') {
+                countLine();
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int read = super.read(cbuf, off, len);
+            for (int i = off; i < off + read; i++) {
+                if (cbuf[i] == '\n') {
+                    countLine();
+                }
+            }
+            return read;
+        }
+
+        private void countLine() {
+            lines++;
+            if (progress != null && lines > 0 && lines % progressInterval == 0) {
+                progress.accept(lines);
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package services;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import models.StockMouvement;
+import models.StockValue;
+
+/** Columns of the stock_movement table: id, quantity, type, unit, creation_datetime. */
+class StockMovementRowMapper extends IndexedRowMapper<StockMouvement> {
+
+    private static final int ID = 0;
+    private static final int QUANTITY = 1;
+    private static final int TYPE = 2;
+    private static final int UNIT = 3;
+    private static final int CREATION_DATETIME = 4;
+
+    StockMovementRowMapper() {
+        super("id", "quantity", "type", "unit", "creation_datetime");
+    }
+
+    @Override
+    protected StockMouvement mapRow(ResultSet rs, int[] columns) throws SQLException {
+        StockValue value =
+                new StockValue(
+                        rs.getDouble(columns[QUANTITY]),
+                        EnumLookup.UNIT.parse(rs.getString(columns[UNIT])));
+        return new StockMouvement(
+                rs.getInt(columns[ID]),
+                value,
+                EnumLookup.MOVEMENT_TYPE.parse(rs.getString(columns[TYPE])),
+                rs.getTimestamp(columns[CREATION_DATETIME]).toInstant());
+    }
+}
@@ -0,0 +1,207 @@
+package services;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import models.Table;
+
+/**
+ * In-memory index of table bookings ending after {@code since}.
+ *
+ * <p>Each table keeps its bookings sorted by arrival. The exclusion constraint on "order" keeps
+ * them disjoint, so "is the table free in [a, b)" is a single floor lookup. The index only sees
+ * bookings made through this process; other writers require a {@link #reload}.
+ *
+ * <p>A reload builds a complete new state and publishes it with one volatile write; bookings
+ * saved while it reads the database are replayed on the new state before it is published.
+ */
+public class TableAvailabilityIndex {
+
+    private final Instant since;
+    private volatile State state = new State(List.of(), Map.of(), new ConcurrentHashMap<>());
+    private final ReentrantLock reloadLock = new ReentrantLock();
+    // Protège la publication d'un nouvel état et le journal des réservations à rejouer
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private List<Booking> replay;
+
+    public TableAvailabilityIndex(Instant since) {
+        if (since == null) {
+            throw new IllegalArgumentException("since must not be null");
+        }
+        this.since = since;
+    }
+
+    public void reload(Connection conn) throws SQLException {
+        reloadLock.lock();
+        try {
+            writeLock.lock();
+            try {
+                replay = new ArrayList<>();
+            } finally {
+                writeLock.unlock();
+            }
+
+            State loaded;
+            try {
+                loaded = load(conn);
+            } catch (SQLException | RuntimeException e) {
+                writeLock.lock();
+                try {
+                    replay = null;
+                } finally {
+                    writeLock.unlock();
+                }
+                throw e;
+            }
+
+            writeLock.lock();
+            try {
+                for (Booking booking : replay) {
+                    loaded.put(booking);
+                }
+                replay = null;
+                state = loaded;
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    /** True when the index holds every booking that may overlap a window starting at {@code arrival}. */
+    public boolean covers(Instant arrival) {
+        return !arrival.isBefore(since);
+    }
+
+    public boolean knowsTable(int tableId) {
+        return state.bookings().containsKey(tableId);
+    }
+
+    /**
+     * Records the booking of a saved order, replacing the previous booking of the same order if it
+     * moved or changed table.
+     */
+    public void putBooking(int orderId, int tableId, Instant arrival, Instant departure) {
+        Booking booking = new Booking(orderId, tableId, arrival, departure);
+        writeLock.lock();
+        try {
+            state.put(booking);
+            if (replay != null) {
+                replay.add(booking);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public boolean isAvailable(int tableId, Instant arrival, Instant departure) {
+        TableBookings tableBookings = state.bookings().get(tableId);
+        return tableBookings == null || tableBookings.isFree(arrival, departure);
+    }
+
+    public List<Table> findAvailableTables(Instant arrival, Instant departure) {
+        State current = state;
+        List<Table> available = new ArrayList<>();
+        for (Table table : current.tablesByNumber()) {
+            TableBookings tableBookings = current.bookings().get(table.getId());
+            if (tableBookings == null || tableBookings.isFree(arrival, departure)) {
+                available.add(table);
+            }
+        }
+        return available;
+    }
+
+    private State load(Connection conn) throws SQLException {
+        List<Table> tables = new ArrayList<>();
+        Map<Integer, TableBookings> bookings = new HashMap<>();
+
+        try (PreparedStatement ps = conn.prepareStatement("SELECT id, number FROM restaurant_table");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                Table table = new Table(rs.getInt("id"), rs.getInt("number"));
+                tables.add(table);
+                bookings.put(table.getId(), new TableBookings());
+            }
+        }
+        tables.sort(Comparator.comparingInt(Table::getNumber));
+
+        State loaded = new State(List.copyOf(tables), Map.copyOf(bookings), new ConcurrentHashMap<>());
+
+        String sql = """
+            SELECT id, id_table, arrival_datetime, departure_datetime
+            FROM "order"
+            WHERE departure_datetime > ?
+            """;
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setTimestamp(1, Timestamp.from(since));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    loaded.put(new Booking(
+                            rs.getInt("id"),
+                            rs.getInt("id_table"),
+                            rs.getTimestamp("arrival_datetime").toInstant(),
+                            rs.getTimestamp("departure_datetime").toInstant()));
+                }
+            }
+        }
+        return loaded;
+    }
+
+    private record Booking(int orderId, int tableId, Instant arrival, Instant departure) {}
+
+    /**
+     * Tables and their bookings as of one reload. The table map never changes once built (a table
+     * created later is unknown and answered from the database); bookings are updated in place.
+     */
+    private record State(
+            List<Table> tablesByNumber,
+            Map<Integer, TableBookings> bookings,
+            Map<Integer, Booking> bookingsByOrder) {
+
+        // Appelé sous writeLock, ou avant publication
+        void put(Booking booking) {
+            Booking previous = bookingsByOrder.remove(booking.orderId());
+            if (previous != null) {
+                TableBookings previousTable = bookings.get(previous.tableId());
+                if (previousTable != null) {
+                    previousTable.remove(previous);
+                }
+            }
+
+            TableBookings tableBookings = bookings.get(booking.tableId());
+            if (tableBookings != null && booking.arrival().isBefore(booking.departure())) {
+                tableBookings.add(booking);
+                bookingsByOrder.put(booking.orderId(), booking);
+            }
+        }
+    }
+
+    private static class TableBookings {
+        private final TreeMap<Instant, Booking> byArrival = new TreeMap<>();
+
+        synchronized void add(Booking booking) {
+            byArrival.put(booking.arrival(), booking);
+        }
+
+        synchronized void remove(Booking booking) {
+            byArrival.remove(booking.arrival(), booking);
+        }
+
+        synchronized boolean isFree(Instant arrival, Instant departure) {
+            Map.Entry<Instant, Booking> candidate = byArrival.lowerEntry(departure);
+            return candidate == null || !candidate.getValue().departure().isAfter(arrival);
+        }
+    }
+}
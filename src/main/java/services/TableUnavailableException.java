@@ -0,0 +1,57 @@
+package services;
+
+import java.time.Instant;
+import java.util.List;
+import models.Table;
+
+public class TableUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    // Table n'est pas sérialisable : le message garde les numéros de table
+    private final transient Table requestedTable;
+    private final Instant arrival;
+    private final Instant departure;
+    private final transient List<Table> availableTables;
+
+    public TableUnavailableException(
+            Table requestedTable, Instant arrival, Instant departure, List<Table> availableTables) {
+        super(buildMessage(requestedTable, availableTables));
+        this.requestedTable = requestedTable;
+        this.arrival = arrival;
+        this.departure = departure;
+        this.availableTables = List.copyOf(availableTables);
+    }
+
+    public Table getRequestedTable() {
+        return requestedTable;
+    }
+
+    public Instant getArrival() {
+        return arrival;
+    }
+
+    public Instant getDeparture() {
+        return departure;
+    }
+
+    public List<Table> getAvailableTables() {
+        return availableTables;
+    }
+
+    private static String buildMessage(Table requestedTable, List<Table> availableTables) {
+        if (availableTables.isEmpty()) {
+            return "No tables are available at the requested time";
+        }
+
+        StringBuilder numbers = new StringBuilder();
+        for (Table table : availableTables) {
+            if (!numbers.isEmpty()) {
+                numbers.append(", ");
+            }
+            numbers.append(table.getNumber());
+        }
+        return "Table " + requestedTable.getNumber() + " is not available. "
+                + "Available tables: " + numbers;
+    }
+}
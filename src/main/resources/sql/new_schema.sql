@@ -24,4 +24,9 @@ UPDATE dish SET price = 3500.00 WHERE id = 1;
 UPDATE dish SET price = 12000.00 WHERE id = 2;
 UPDATE dish SET price = NULL    WHERE id = 3;
 UPDATE dish SET price = 8000.00 WHERE id = 4;
-UPDATE dish SET price = NULL    WHERE id = 5;
\ No newline at end of file
+UPDATE dish SET price = NULL    WHERE id = 5;
+
+-- Clé de pagination : (id_ingredient, id_dish) n'est pas unique, id départage les doublons
+DROP INDEX IF EXISTS dish_ingredient_ingredient_dish_idx;
+CREATE INDEX IF NOT EXISTS dish_ingredient_keyset_idx
+    ON dish_ingredient (id_ingredient, id_dish, id);
@@ -0,0 +1,9 @@
+-- btree_gist permet de combiner l'égalité sur id_table et le chevauchement de plages
+CREATE EXTENSION IF NOT EXISTS btree_gist;
+
+ALTER TABLE "order"
+    ADD CONSTRAINT order_table_booking_excl
+    EXCLUDE USING gist (
+        id_table WITH =,
+        tsrange(arrival_datetime, departure_datetime) WITH &&
+    );
@@ -0,0 +1,20 @@
+-- Les sorties de stock d'une commande sont rattachées à celle-ci
+ALTER TABLE stock_movement
+    ADD COLUMN IF NOT EXISTS id_order INT;
+
+-- RESTRICT : supprimer une commande ne doit pas rendre son stock en silence
+-- (les snapshots ne seraient pas invalidés)
+DO $$
+BEGIN
+    IF NOT EXISTS (
+        SELECT 1 FROM pg_constraint WHERE conname = 'fk_stock_movement_order'
+    ) THEN
+        ALTER TABLE stock_movement
+            ADD CONSTRAINT fk_stock_movement_order FOREIGN KEY (id_order)
+                REFERENCES "order"(id) ON DELETE RESTRICT;
+    END IF;
+END $$;
+
+CREATE INDEX IF NOT EXISTS stock_movement_order_idx
+    ON stock_movement (id_order)
+    WHERE id_order IS NOT NULL;
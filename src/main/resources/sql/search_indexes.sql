@@ -0,0 +1,8 @@
+-- pg_trgm doit être installé par un superutilisateur
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX IF NOT EXISTS ingredient_name_trgm_idx
+    ON ingredient USING gin (name gin_trgm_ops);
+
+CREATE INDEX IF NOT EXISTS dish_name_trgm_idx
+    ON dish USING gin (name gin_trgm_ops);
@@ -0,0 +1,13 @@
+-- Sorties de stock des commandes encore dans la file du StockLedger, telles que réservées
+-- (la recette peut changer avant la reprise : on ne la relit pas)
+CREATE TABLE IF NOT EXISTS stock_ledger_pending (
+                                                    id_order INT NOT NULL,
+                                                    id_ingredient INT NOT NULL,
+                                                    quantity NUMERIC(10,2) NOT NULL,
+                                                    unit unit_type NOT NULL,
+                                                    consumed_at TIMESTAMP NOT NULL,
+                                                    created_at TIMESTAMP NOT NULL DEFAULT now(),
+                                                    CONSTRAINT stock_ledger_pending_pk PRIMARY KEY (id_order, id_ingredient),
+                                                    CONSTRAINT fk_pending_order FOREIGN KEY (id_order) REFERENCES "order"(id) ON DELETE CASCADE,
+                                                    CONSTRAINT fk_pending_ingredient FOREIGN KEY (id_ingredient) REFERENCES ingredient(id)
+);
@@ -20,4 +20,8 @@ INSERT INTO stock_movement (id, id_ingredient, quantity, type, unit, creation_da
                                                                                             (7, 4,  3.0,  'IN',  'KG', '2024-01-05 10:00'),
                                                                                             (8, 4,  0.3,  'OUT', 'KG', '2024-01-06 14:00'),
                                                                                             (9, 5,  2.5,  'IN',  'KG', '2024-01-05 10:00'),
-                                                                                            (10,5,  0.2,  'OUT', 'KG', '2024-01-06 14:00');
\ No newline at end of file
+                                                                                            (10,5,  0.2,  'OUT', 'KG', '2024-01-06 14:00');
+
+CREATE INDEX IF NOT EXISTS stock_movement_ingredient_datetime_idx
+    ON stock_movement (id_ingredient, creation_datetime)
+    INCLUDE (type, quantity, unit);
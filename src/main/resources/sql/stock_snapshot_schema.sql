@@ -0,0 +1,17 @@
+CREATE TABLE stock_snapshot (
+                                id_ingredient INT NOT NULL,
+                                as_of_datetime TIMESTAMP NOT NULL,
+                                quantity NUMERIC(12,2) NOT NULL,
+                                unit unit_type NOT NULL,
+                                CONSTRAINT stock_snapshot_pk PRIMARY KEY (id_ingredient, as_of_datetime),
+                                CONSTRAINT fk_snapshot_ingredient FOREIGN KEY (id_ingredient) REFERENCES ingredient(id) ON DELETE CASCADE
+);
+
+INSERT INTO stock_snapshot (id_ingredient, as_of_datetime, quantity, unit)
+-- Daté du dernier mouvement et non de now() : les dates viennent toutes de l'horloge de l'application
+SELECT sm.id_ingredient,
+       MAX(sm.creation_datetime),
+       SUM(CASE sm.type WHEN 'IN' THEN sm.quantity ELSE -sm.quantity END),
+       (ARRAY_AGG(sm.unit ORDER BY sm.creation_datetime, sm.id))[1]
+FROM stock_movement sm
+GROUP BY sm.id_ingredient;